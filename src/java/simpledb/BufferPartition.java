@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One slice of the BufferPool. Every partition owns a fixed share of the
+ * frames together with its own page table, replacement policy and monitor,
+ * so requests for pages that hash to different partitions never contend.
+ * <p>
+ * A miss does not read the page while holding the partition monitor: the
+ * reader reserves a {@link Frame}, reads the page outside of any lock and
+ * then publishes it. Other transactions asking for the same page meanwhile
+ * wait on the frame's latch instead of issuing a second read.
+ * <p>
+ * Frames read by a scan through a {@link BufferRing}, or read ahead of one,
+ * stay private to the scan until another request uses them, and the scan
+ * drops them once they leave its ring.
+ * <p>
+ * All methods synchronize on the partition. A caller must never acquire the
+ * BufferPool monitor while holding a partition monitor.
+ *
+ * @see BufferPool
+ */
+class BufferPartition {
+
+    /**
+     * A buffer frame: holds a page once it has been read from disk.
+     * Until then the page is null and waiters block on the latch.
+     */
+    static class Frame {
+        final PageId pid;
+        private volatile Page page;
+        private volatile RuntimeException failure;
+        private final CountDownLatch loaded;
+        // Whether a request other than a ring scan has used the page
+        private volatile boolean shared;
+
+        Frame(PageId pid, boolean shared) {
+            this.pid = pid;
+            this.loaded = new CountDownLatch(1);
+            this.shared = shared;
+        }
+
+        Frame(Page page) {
+            this(page.getId(), true);
+            complete(page);
+        }
+
+        boolean isShared() {
+            return shared;
+        }
+
+        boolean isLoading() {
+            return loaded.getCount() > 0;
+        }
+
+        Page getPage() {
+            return page;
+        }
+
+        private void complete(Page page) {
+            this.page = page;
+            loaded.countDown();
+        }
+
+        private void fail(RuntimeException e) {
+            this.failure = e;
+            loaded.countDown();
+        }
+
+        /**
+         * Wait until the page has been read
+         * @return the page, or throws whatever the read threw
+         */
+        Page await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    loaded.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (failure != null) throw failure;
+            return page;
+        }
+    }
+
+    /**
+     * key : PageId
+     * value : frame holding (or about to hold) the page
+     */
+    private final HashMap<PageId, Frame> frames;
+    private final ReplacementPolicy replacementPolicy;
+    private final int capacity;
+
+    BufferPartition(int capacity, ReplacementPolicy.Kind policy) {
+        this.capacity = capacity;
+        this.frames = new HashMap<>();
+        this.replacementPolicy = ReplacementPolicy.create(policy, capacity);
+    }
+
+    /**
+     * Look up a page and count the access as a hit
+     * @return the frame of pid, which may still be loading, or null if pid
+     *         is not cached in this partition
+     */
+    synchronized Frame getFrame(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            replacementPolicy.recordAccess(pid);
+            frame.shared = true;
+        }
+        return frame;
+    }
+
+    /**
+     * Look up a page for a ring scan, without counting an access
+     * @return the frame of pid, which may still be loading, or null if pid
+     *         is not cached in this partition
+     */
+    synchronized Frame getRingFrame(PageId pid) {
+        return frames.get(pid);
+    }
+
+    /**
+     * Reserve an empty frame for pid, evicting a clean page if the partition
+     * is full. The caller must read the page and hand it to {@link #loaded}
+     * or report the error to {@link #failed}.
+     *
+     * @return the reserved frame, or null if another request got there first
+     * @throws DbException if the partition is full of dirty pages
+     */
+    synchronized Frame reserve(PageId pid) throws DbException {
+        return reserve(pid, true);
+    }
+
+    /**
+     * Reserve an empty frame for pid, as {@link #reserve(PageId)} does
+     * @param shared false if the page is read for a ring scan or ahead of
+     *               one, so that the scan may drop it again
+     */
+    synchronized Frame reserve(PageId pid, boolean shared) throws DbException {
+        if (frames.containsKey(pid)) return null;
+        while (frames.size() >= capacity) evictPage();
+        Frame frame = new Frame(pid, shared);
+        frames.put(pid, frame);
+        replacementPolicy.recordInsert(pid);
+        return frame;
+    }
+
+    /** Publish a page read into a reserved frame and wake up its waiters */
+    synchronized void loaded(Frame frame, Page page) {
+        if (frame.isLoading()) frame.complete(page);
+    }
+
+    /** Give up a reserved frame whose read failed */
+    synchronized void failed(Frame frame, RuntimeException e) {
+        if (frames.get(frame.pid) == frame) {
+            frames.remove(frame.pid);
+            replacementPolicy.remove(frame.pid);
+        }
+        frame.fail(e);
+    }
+
+    /**
+     * Look up a page without touching the replacement policy
+     * @return the cached page, or null if it is not cached or still loading
+     */
+    synchronized Page peek(PageId pid) {
+        Frame frame = frames.get(pid);
+        return frame == null ? null : frame.getPage();
+    }
+
+    /** @return whether pid has a frame, loaded or not, without counting an access */
+    synchronized boolean contains(PageId pid) {
+        return frames.containsKey(pid);
+    }
+
+    /**
+     * Cache a page, replacing any cached version of the same PageId.
+     * Evicts a clean page first if the partition is full.
+     *
+     * @throws DbException if the partition is full of dirty pages
+     */
+    synchronized void put(Page page) throws DbException {
+        PageId pid = page.getId();
+        Frame frame = frames.get(pid);
+        if (frame != null) {
+            if (frame.isLoading()) frame.complete(page);
+            else frame.page = page;
+            replacementPolicy.recordAccess(pid);
+            return;
+        }
+        while (frames.size() >= capacity) evictPage();
+        frames.put(pid, new Frame(page));
+        replacementPolicy.recordInsert(pid);
+    }
+
+    /**
+     * Replace a cached page in place, e.g. with its before image on abort.
+     * Does nothing if the page has been evicted meanwhile.
+     */
+    synchronized void replace(Page page) {
+        Frame frame = frames.get(page.getId());
+        if (frame != null && !frame.isLoading()) frame.page = page;
+    }
+
+    /**
+     * Drop a page that has left the ring of a scan, unless another request
+     * used it since or it is dirty or still loading
+     */
+    synchronized void dropFromRing(PageId pid) {
+        Frame frame = frames.get(pid);
+        if (frame == null || frame.shared || frame.isLoading() || frame.getPage().isDirty() != null) return;
+        frames.remove(pid);
+        replacementPolicy.remove(pid);
+    }
+
+    /** Drop a page from this partition */
+    synchronized void remove(PageId pid) {
+        if (frames.remove(pid) != null) replacementPolicy.remove(pid);
+    }
+
+    /** @return a snapshot of the pages cached in this partition */
+    synchronized List<Page> pages() {
+        List<Page> pages = new ArrayList<>(frames.size());
+        for (Frame frame : frames.values()) {
+            if (!frame.isLoading()) pages.add(frame.getPage());
+        }
+        return pages;
+    }
+
+    synchronized int size() {
+        return frames.size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Discards a clean page from this partition.
+     * NO-STEAL: dirty pages are never chosen, nor are frames still loading.
+     */
+    private void evictPage() throws DbException {
+        PageId evictedPid = replacementPolicy.evict(pid -> {
+            Frame frame = frames.get(pid);
+            return frame == null || (!frame.isLoading() && frame.getPage().isDirty() == null);
+        });
+        if (evictedPid == null) throw new DbException("All pages in BufferPool are dirty");
+        frames.remove(evictedPid);
+    }
+}
@@ -3,11 +3,14 @@ package simpledb;
 import javax.xml.crypto.Data;
 import java.io.*;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -17,6 +20,21 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cached pages are spread over several {@link BufferPartition}s keyed by
+ * PageId. Each partition does its own lookup, eviction and accounting under
+ * its own monitor, so transactions touching different pages don't serialize.
+ * <p>
+ * Sequential scans can have the pages ahead of them read in the background
+ * by a few prefetch threads, see {@link #prefetchPage}.
+ * <p>
+ * By default the pool is NO-STEAL / FORCE: dirty pages never leave the pool
+ * before their transaction ends, and commit writes them. In STEAL / NO-FORCE
+ * mode ({@link #setStealNoForce}) commit only logs the after images of its
+ * pages, which stay dirty until a background writer writes them after the
+ * log is forced. A transaction that runs out of frames has its own dirty
+ * pages written, UPDATE record first, and abort undoes them from the log.
+ * Pages with pending rows of row locking are only ever written at commit.
  * 
  * @Threadsafe, all fields are final
  */
@@ -30,23 +48,43 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
-    public static int MANUAL_PAGES;
+
+    /** Upper bound on the number of partitions chosen by default */
+    private static final int MAX_PARTITIONS = 16;
+    /** Partitions are only split off once each of them gets this many frames */
+    private static final int MIN_PAGES_PER_PARTITION = 64;
+    /** Largest ring of a scan, and its share of the pool */
+    private static final int MAX_RING_PAGES = 16;
+    private static final int RING_SHARE = 8;
+    /** Pause of the background writer between two rounds */
+    private static final long WRITER_INTERVAL_MILLIS = 50;
+    /** Threads that read pages ahead of sequential scans */
+    private static final int PREFETCH_THREADS = 4;
 
     LockManager lockManager;
     /**
-     * key : hash code of PageId
-     * value : Page file'
+     * The cached pages, split into independently locked partitions by PageId
      */
-    // TODO: Convert key from pageId.hashCode() to pageId
-    public final HashMap<Integer, Page> bufferPool;
-    public int pageNum;
+    private final BufferPartition[] partitions;
+    private final int numPages;
+    /** Lock tuples instead of whole pages when HeapFiles insert and delete */
+    private volatile boolean rowLocking;
+    /** Read ahead of sequential scans of HeapFiles */
+    private volatile boolean readAhead;
+    /** Commit logs the pages instead of writing them, eviction may write them */
+    private volatile boolean stealNoForce;
+    private Thread writer;
+    /** Rounds the background writer has completed; guarded by this */
+    private long writerRounds;
+    /** Why the background writer stopped, null while it works; guarded by this */
+    private Exception writerFailure;
     /**
-     * Implement least-recent-used policy to this BufferPool
-     * Top of this queue is the least recent used pageId.hashCode
+     * Dirtier of the pages whose changes are committed and logged, but not
+     * written yet, in STEAL / NO-FORCE mode
      */
-    private final Queue<Integer> LRUCache;
-    // Record the page num within this buffer pool
-    private final Object LOCK;
+    static final TransactionId COMMITTED = new TransactionId();
+    /** Reads pages ahead of scans; its threads only live while it is busy */
+    private final ThreadPoolExecutor prefetcher;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -54,14 +92,123 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        MANUAL_PAGES = numPages;
-        pageNum = 0;
-        bufferPool = new HashMap<>();
-        LRUCache = new LinkedList<>();
-        lockManager = new LockManager();
-        LOCK = new Object();
+        this(numPages, ReplacementPolicy.Kind.getDefault());
     }
-    
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy page replacement policy used when the pool is full
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+        this(numPages, policy, defaultPartitions(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages spread over
+     * numPartitions independently locked partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy page replacement policy used by every partition
+     * @param numPartitions number of partitions, each one gets an equal
+     *                      share of numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy, int numPartitions) {
+        this(numPages, policy, numPartitions, LockManager.DeadlockPolicy.getDefault());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and handles
+     * deadlocks between its transactions with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param deadlockPolicy how the lock manager detects or prevents deadlocks
+     */
+    public BufferPool(int numPages, LockManager.DeadlockPolicy deadlockPolicy) {
+        this(numPages, ReplacementPolicy.Kind.getDefault(), defaultPartitions(numPages), deadlockPolicy);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages spread over
+     * numPartitions independently locked partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy page replacement policy used by every partition
+     * @param numPartitions number of partitions, each one gets an equal
+     *                      share of numPages
+     * @param deadlockPolicy how the lock manager detects or prevents deadlocks
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy, int numPartitions,
+                      LockManager.DeadlockPolicy deadlockPolicy) {
+        if (numPartitions < 1 || numPartitions > numPages)
+            throw new IllegalArgumentException("Invalid number of partitions: " + numPartitions);
+        this.numPages = numPages;
+        this.partitions = new BufferPartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            // Spread the remainder over the first partitions
+            int capacity = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new BufferPartition(capacity, policy);
+        }
+        lockManager = new LockManager(deadlockPolicy);
+        rowLocking = Boolean.getBoolean("simpledb.RowLocking");
+        readAhead = Boolean.getBoolean("simpledb.ReadAhead");
+        prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "BufferPool prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        prefetcher.allowCoreThreadTimeOut(true);
+        if (Boolean.getBoolean("simpledb.StealNoForce")) setStealNoForce(true);
+    }
+
+    /**
+     * Small pools stay in one partition so that each partition still has room
+     * to evict; large pools get up to two partitions per core, so that a
+     * thread descheduled while it holds a partition only holds up the
+     * threads that want a page of that same partition.
+     */
+    private static int defaultPartitions(int numPages) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int partitions = Math.min(Math.min(MAX_PARTITIONS, 2 * cores), numPages / MIN_PAGES_PER_PARTITION);
+        return Math.max(1, partitions);
+    }
+
+    /**
+     * @return the partition responsible for caching page pid
+     */
+    BufferPartition partitionFor(PageId pid) {
+        if (partitions.length == 1) return partitions[0];
+        // Mix all bits of the hash into the low ones (the finalizer of
+        // MurmurHash3), so that consecutive pages spread over the partitions
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        h *= 0xC2B2AE35;
+        h ^= (h >>> 16);
+        return partitions[Math.floorMod(h, partitions.length)];
+    }
+
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the number of pages currently cached */
+    public int getNumCachedPages() {
+        int cached = 0;
+        for (BufferPartition partition : partitions) cached += partition.size();
+        return cached;
+    }
+
+    /** @return the number of partitions of this buffer pool */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -97,48 +244,357 @@ public class BufferPool {
         if (perm.toString().equals("UNKNOWN"))
             throw new DbException("No permission");
 
-        synchronized (LOCK) {
-            // Requesting a lock ...
+        // Requesting a lock, blocks in the lock's wait queue until granted
+        lockManager.acquireLock(tid, pid, perm);
+        return fetchPage(tid, pid);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, as
+     * {@link #getPage(TransactionId, PageId, Permissions)} does, for a
+     * large sequential scan. The page is read through the ring of the scan
+     * and not counted as an access, so that the scan does not push the
+     * pages of other transactions out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, null for a random access
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null) return getPage(tid, pid, perm);
+        if (perm.toString().equals("UNKNOWN"))
+            throw new DbException("No permission");
+
+        lockManager.acquireLock(tid, pid, perm);
+        BufferPartition partition = partitionFor(pid);
+        BufferPartition.Frame frame = partition.getRingFrame(pid);
+        // Pages only the scan uses, such as those read ahead of it, join
+        // the ring too. A miss makes room with the oldest page of the ring.
+        if (frame == null || !frame.isShared()) {
+            PageId replaced = ring.add(pid);
+            if (replaced != null) partitionFor(replaced).dropFromRing(replaced);
+        }
+        while (frame == null) {
+            frame = reserve(tid, partition, pid, false);
+            if (frame != null) loadPage(partition, frame);
+            else frame = partition.getRingFrame(pid);
+        }
+        return frame.await();
+    }
+
+    /**
+     * @return a ring for a sequential scan of a file with filePages pages,
+     *         or null if the file fits into the pool and is cached as usual
+     */
+    public BufferRing scanRing(int filePages) {
+        if (filePages <= numPages) return null;
+        return new BufferRing(Math.max(1, Math.min(MAX_RING_PAGES, numPages / RING_SHARE)));
+    }
+
+    /**
+     * Retrieve a page locked in the given mode. Used by row locking, where
+     * writers lock the page IX and the tuples they change X, so that they
+     * can change different slots of the page at the same time.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param mode the lock mode on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, LockMode mode)
+        throws TransactionAbortedException, DbException {
+        lockManager.acquirePageLock(tid, pid, mode, lockManager.getTimeout());
+        return fetchPage(tid, pid);
+    }
+
+    /**
+     * Return the cached page pid, reading it for tid if it is not cached
+     */
+    private Page fetchPage(TransactionId tid, PageId pid) throws DbException {
+        BufferPartition partition = partitionFor(pid);
+        BufferPartition.Frame frame = partition.getFrame(pid);
+        while (frame == null) {
+            // Miss: reserve a frame, then read the page without holding any
+            // BufferPool lock. Concurrent requests for pid wait on the frame.
+            frame = reserve(tid, partition, pid, true);
+            if (frame != null) loadPage(partition, frame);
+            else frame = partition.getFrame(pid);
+        }
+        return frame.await();
+    }
+
+    /**
+     * Reserve a frame for pid in its partition on behalf of tid. In STEAL
+     * mode a partition full of dirty pages is made room in by writing some.
+     *
+     * @see BufferPartition#reserve(PageId, boolean)
+     */
+    private BufferPartition.Frame reserve(TransactionId tid, BufferPartition partition, PageId pid,
+                                          boolean shared) throws DbException {
+        while (true) {
             try {
-                while (!lockManager.acquireLock(tid, pid, perm)) LOCK.wait();
-            } catch (InterruptedException | IOException e) {
-                e.printStackTrace();
+                return partition.reserve(pid, shared);
+            } catch (DbException e) {
+                if (!steal(tid, partition)) throw e;
             }
+        }
+    }
 
-            if (bufferPool.containsKey(pid.hashCode())) {
-                makeRecentUsed(pid.hashCode());
-                return bufferPool.get(pid.hashCode());
+    /**
+     * Make dirty pages of a partition evictable by writing them, in STEAL
+     * mode: committed pages nobody is changing, or else pages tid dirtied
+     * itself. The pages of other running transactions are left alone, as
+     * they may be in the middle of a change.
+     *
+     * @return whether a page was written
+     */
+    private boolean steal(TransactionId tid, BufferPartition partition) throws DbException {
+        if (!stealNoForce) return false;
+        synchronized (this) {
+            // The committed pages would stay dirty for good
+            if (writerFailure != null)
+                throw new DbException("the background writer failed: " + writerFailure);
+        }
+        List<Page> committed = new ArrayList<>();
+        List<Page> own = new ArrayList<>();
+        for (Page page : partition.pages()) {
+            TransactionId dirtier = page.isDirty();
+            if (COMMITTED.equals(dirtier)) committed.add(page);
+            else if (dirtier != null && dirtier.equals(tid)) own.add(page);
+        }
+        try {
+            if (writeCommitted(committed) > 0) return true;
+            // the background writer may have written them in the meantime
+            for (Page page : committed) {
+                if (page.isDirty() == null) return true;
             }
+            for (Page page : own) {
+                // Pages with pending rows stay cached until their writers complete
+                if (page instanceof HeapPage && ((HeapPage) page).hasPendingSlots()) continue;
+                flushPage(page.getId());
+                if (page.isDirty() == null) return true;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write a page to make room: " + e.getMessage());
+        }
+        return false;
+    }
 
-            while (this.pageNum >= MANUAL_PAGES) {
-                evictPage();
+    /**
+     * Write committed pages that no running transaction has locked. Their
+     * after images were logged at commit, so the log is forced up to the
+     * latest of their pageLSNs before, unless group commit forced it
+     * already.
+     *
+     * @return the number of pages written
+     */
+    private int writeCommitted(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) return 0;
+        // Lock the pages without waiting, so that nobody changes them meanwhile
+        TransactionId writerTid = new TransactionId();
+        try {
+            List<Page> locked = new ArrayList<>();
+            for (Page page : pages) {
+                if (lockManager.tryLockPage(writerTid, page.getId(), LockMode.S)) locked.add(page);
             }
+            if (locked.isEmpty()) return 0;
+            long lsn = 0;
+            for (Page page : locked) lsn = Math.max(lsn, page.getLSN());
+            Database.getLogFile().force(lsn);
+            int written = 0;
+            synchronized (this) {
+                for (Page page : locked) {
+                    if (partitionFor(page.getId()).peek(page.getId()) != page
+                            || !COMMITTED.equals(page.isDirty())) continue;
+                    Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
+                    page.markDirty(false, null);
+                    written++;
+                }
+            }
+            return written;
+        } finally {
+            lockManager.releaseTransaction(writerTid);
+        }
+    }
 
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page requiredPage = dbFile.readPage(pid);
-            bufferPool.put(pid.hashCode(), requiredPage);
-            makeRecentUsed(pid.hashCode());
-            this.pageNum++;
+    /**
+     * Read the page of a reserved frame from disk and publish it
+     */
+    private void loadPage(BufferPartition partition, BufferPartition.Frame frame) {
+        try {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+            partition.loaded(frame, dbFile.readPage(frame.pid));
+        } catch (RuntimeException e) {
+            partition.failed(frame, e);
+            throw e;
+        }
+    }
 
-            LOCK.notifyAll();
-            return requiredPage;
+    /**
+     * Read page pid into the pool in the background, unless it is cached
+     * already. The frame is reserved right away, so that requests for the
+     * page wait for the read instead of issuing their own. No lock is
+     * taken: the page is only cached, and whoever uses it still locks it
+     * through getPage. The page is not read if the pool has no clean page
+     * to make room with, nor if the read fails; the scan then reads it
+     * itself when it gets there.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetchPage(PageId pid) {
+        BufferPartition partition = partitionFor(pid);
+        BufferPartition.Frame frame;
+        try {
+            frame = partition.reserve(pid, false);
+        } catch (DbException e) {
+            return;
         }
+        if (frame == null) return;
+        prefetcher.execute(() -> {
+            try {
+                loadPage(partition, frame);
+            } catch (RuntimeException e) {
+                // Left to the scan
+            }
+        });
+    }
+
+    /** @return whether page pid is cached, or being read into the pool */
+    public boolean isCached(PageId pid) {
+        return partitionFor(pid).contains(pid);
+    }
+
+    /**
+     * Turn read-ahead for sequential scans of HeapFiles on or off. Also
+     * enabled by -Dsimpledb.ReadAhead=true.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public boolean isReadAhead() {
+        return readAhead;
     }
 
     /**
-     * Helper function to make a page "Most recent used" in LRUCache queue
-     * @param pidKey
-     *          HashCode of PageID
+     * Turn STEAL / NO-FORCE mode on or off, starting the background writer,
+     * also after it stopped because it could not write a page. Also enabled
+     * by -Dsimpledb.StealNoForce=true. Switch it only while no transaction
+     * is running.
      */
-    private void makeRecentUsed(int pidKey) {
-        if (LRUCache.contains(pidKey)) {
-            LRUCache.remove(pidKey);
-            LRUCache.offer(pidKey);
-        } else {
-            LRUCache.offer(pidKey);
+    public synchronized void setStealNoForce(boolean stealNoForce) {
+        this.stealNoForce = stealNoForce;
+        if (stealNoForce && writer == null) {
+            writerFailure = null;
+            writer = new Thread(this::runWriter, "BufferPool writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    public boolean isStealNoForce() {
+        return stealNoForce;
+    }
+
+    // The background writer: writes the committed pages every round, until
+    // the pool is switched back or replaced by another one, or a page can't
+    // be written; then steals fail from then on
+    private void runWriter() {
+        while (true) {
+            try {
+                Thread.sleep(WRITER_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            synchronized (this) {
+                if (!stealNoForce || Database.getBufferPool() != this) {
+                    writer = null;
+                    notifyAll();
+                    return;
+                }
+            }
+            List<Page> committed = new ArrayList<>();
+            for (BufferPartition partition : partitions) {
+                for (Page page : partition.pages()) {
+                    if (COMMITTED.equals(page.isDirty())) committed.add(page);
+                }
+            }
+            try {
+                writeCommitted(committed);
+            } catch (IOException | RuntimeException e) {
+                Debug.log("BufferPool writer stopped: %s", e);
+                synchronized (this) {
+                    writerFailure = e;
+                }
+                break;
+            }
+            synchronized (this) {
+                writerRounds++;
+                notifyAll();
+            }
+        }
+        synchronized (this) {
+            writer = null;
+            notifyAll();
         }
     }
 
+    /**
+     * Wait until the background writer has completed a whole round that
+     * started after this call, so that it has written every page committed
+     * before. Returns at once if there is no writer.
+     */
+    synchronized void awaitWriterRound() throws InterruptedException {
+        // The round in progress may have started before the call
+        long target = writerRounds + 2;
+        while (writer != null && writerRounds < target) wait();
+    }
+
+    /**
+     * Lock a whole table on behalf of tid: READ_ONLY takes a table S lock
+     * that covers every page, so a full scan needs one lock instead of one
+     * per page; READ_WRITE takes a table X lock.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm the requested permissions on the table
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (perm.toString().equals("UNKNOWN"))
+            throw new DbException("No permission");
+        lockManager.acquireTableLock(tid, tableId, perm);
+    }
+
+    /**
+     * Lock a tuple on behalf of tid, with IS / IX on its page and table.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the tuple to lock
+     * @param perm the requested permissions on the tuple
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        if (perm.toString().equals("UNKNOWN"))
+            throw new DbException("No permission");
+        lockManager.acquireRecordLock(tid, rid, perm);
+    }
+
+    /**
+     * Turn row locking for HeapFile inserts and deletes on or off. Also
+     * enabled by -Dsimpledb.RowLocking=true.
+     */
+    public void setRowLocking(boolean rowLocking) {
+        this.rowLocking = rowLocking;
+    }
+
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -163,6 +619,19 @@ public class BufferPool {
         transactionComplete(tid, true);
     }
 
+    /** @return the lock manager, e.g. to configure it or read its statistics */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * Abort transactions that wait longer than timeoutMillis for a page lock.
+     * 0 (the default) waits until the lock is granted or a deadlock is found.
+     */
+    public void setLockTimeout(long timeoutMillis) {
+        lockManager.setTimeout(timeoutMillis);
+    }
+
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId pid) {
         // TODO: some code goes here
@@ -177,33 +646,163 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
+        throws IOException {
+        transactionComplete(tid, commit, false);
+    }
+
+    /**
+     * Commit or abort a given transaction, as
+     * {@link #transactionComplete(TransactionId, boolean)} does, and on
+     * commit also append the COMMIT record of tid to the log. The record is
+     * forced once the updates of tid are logged, before its pages are marked
+     * committed and its locks are released, so that no other transaction
+     * sees the changes of tid before they are durable.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param logCommit whether to log the commit of tid
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean logCommit)
         throws IOException {
         // TODO: some code goes here
-        synchronized (LOCK) {
-            Set<PageId> pageIdSet = lockManager.tidToPages.get(tid);
-            if (pageIdSet == null) {
-                lockManager.releaseTransaction(tid);
-                LOCK.notifyAll();
-                return;
+        // STEAL: pages written before the end are undone from the log
+        if (!commit && stealNoForce) Database.getLogFile().rollback(tid);
+        Set<PageId> pageIdSet = lockManager.getLockedPages(tid);
+        // Pages of tables locked exclusively were modified without page locks
+        Set<Integer> tableIds = lockManager.getExclusiveTables(tid);
+        if (!tableIds.isEmpty()) {
+            for (BufferPartition partition : partitions) {
+                for (Page page : partition.pages()) {
+                    if (tableIds.contains(page.getId().getTableId()) && tid.equals(page.isDirty()))
+                        pageIdSet.add(page.getId());
+                }
             }
-            for (PageId pageId : pageIdSet) {
-                if (!bufferPool.containsKey(pageId.hashCode())) continue;
-                Page page = bufferPool.get(pageId.hashCode());
-                if (commit) {
-                    // Commit the modifications: FORCE
-                    flushPage(pageId);
-                    Page p = bufferPool.get(pageId.hashCode());
-                    p.setBeforeImage();
+        }
+        // FORCE: the pages to write at commit, with a single force of the log
+        List<PageId> forced = new ArrayList<>();
+        // NO-FORCE: the pages whose after images were logged at commit
+        List<Page> logged = new ArrayList<>();
+        for (PageId pageId : pageIdSet) {
+            BufferPartition partition = partitionFor(pageId);
+            Page page = partition.peek(pageId);
+            if (page == null) continue;
+            if (rowLocking && page instanceof HeapPage && !tableIds.contains(pageId.getTableId())
+                    && lockManager.getPageLockMode(tid, pageId) != LockMode.X) {
+                // Other transactions may have pending rows on this page
+                completeRows(tid, (HeapPage) page, commit);
+            } else if (commit && stealNoForce) {
+                // NO-FORCE: log the after image, the writer writes it later
+                if (tid.equals(page.isDirty())) {
+                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                    logged.add(page);
                 } else {
-                    // Abort the modifications: NO-STEAL
-                    // Overwrite the page in BufferPool with the old version
-                    Page oldPage = page.getBeforeImage();
-                    bufferPool.put(oldPage.getId().hashCode(), oldPage);
+                    page.setBeforeImage();
                 }
+            } else if (commit) {
+                // Commit the modifications: FORCE
+                forced.add(pageId);
+            } else if (stealNoForce) {
+                // The before image may be a committed image not written yet
+                if (!tid.equals(page.isDirty())) continue;
+                Page restored = page.getBeforeImage();
+                restored.markDirty(true, COMMITTED);
+                restored.setLSN(page.getLSN());
+                partition.replace(restored);
+                noteFreeSpace(restored);
+            } else {
+                // Abort the modifications: NO-STEAL
+                // Overwrite the page in BufferPool with the old version
+                Page restored = page.getBeforeImage();
+                partition.replace(restored);
+                noteFreeSpace(restored);
+            }
+        }
+        if (!forced.isEmpty()) flushPages(forced);
+        if (commit && logCommit) Database.getLogFile().logCommit(tid);
+        for (Page page : logged) {
+            page.markDirty(true, COMMITTED);
+            page.setBeforeImage();
+        }
+        if (!forced.isEmpty()) {
+            for (PageId pageId : forced) {
+                Page page = partitionFor(pageId).peek(pageId);
+                if (page == null) continue;
+                // Rows tid changed before it locked the table exclusively
+                if (page instanceof HeapPage && ((HeapPage) page).hasPendingSlots(tid)) {
+                    synchronized (page) {
+                        ((HeapPage) page).commitSlots(tid, (HeapPage) page);
+                    }
+                }
+                page.setBeforeImage();
+            }
+        }
+        lockManager.releaseTransaction(tid, commit);
+    }
+
+    // Tell the free-space map of the page's file about space an abort freed
+    private void noteFreeSpace(Page page) {
+        if (!(page instanceof HeapPage || page instanceof SlottedPage || page instanceof PaxPage)) return;
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        if (page instanceof HeapPage && file instanceof HeapFile)
+            ((HeapFile) file).noteFreeSpace((HeapPage) page);
+        else if (page instanceof SlottedPage && file instanceof SlottedFile)
+            ((SlottedFile) file).noteFreeSpace((SlottedPage) page);
+        else if (page instanceof PaxPage && file instanceof PaxFile)
+            ((PaxFile) file).noteFreeSpace((PaxPage) page);
+    }
+
+    /**
+     * Commit or abort the row changes of tid on a page shared with other
+     * writers. On commit only the committed slots and those of tid are
+     * logged and written (FORCE); on abort only the slots of tid are undone.
+     */
+    private void completeRows(TransactionId tid, HeapPage page, boolean commit) throws IOException {
+        if (!commit) {
+            synchronized (page) {
+                page.rollbackSlots(tid);
+            }
+            noteFreeSpace(page);
+            return;
+        }
+        // Serialize with other flushes so that the images reach the disk in order
+        synchronized (this) {
+            HeapPage image;
+            synchronized (page) {
+                if (!page.hasPendingSlots(tid)) return;
+                image = page.getCommittedImage(tid);
             }
-            lockManager.releaseTransaction(tid);
-            LOCK.notifyAll();
+            Database.getLogFile().logWrite(tid, page.getBeforeImage(), image);
+            Database.getLogFile().force(image.getLSN());
+            Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(image);
+            synchronized (page) {
+                page.commitSlots(tid, image);
+            }
+            page.setLSN(image.getLSN());
+        }
+    }
+
+    /**
+     * Undo the rows tid changed on a cached page that other transactions
+     * have pending rows on, for a rollback from the log: the page stays
+     * cached with their rows, and the committed rows are written to disk
+     * over any image that held the rows of tid.
+     *
+     * @return false if pid is not such a page, so that it is restored
+     *         from the log as a whole
+     */
+    synchronized boolean rollbackRows(TransactionId tid, PageId pid) throws IOException {
+        Page cached = partitionFor(pid).peek(pid);
+        if (!(cached instanceof HeapPage)) return false;
+        HeapPage page = (HeapPage) cached;
+        HeapPage image;
+        synchronized (page) {
+            if (!page.hasOtherPendingSlots(tid)) return false;
+            page.rollbackSlots(tid);
+            image = page.getCommittedImage(tid);
         }
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(image);
+        noteFreeSpace(page);
+        return true;
     }
 
     /**
@@ -225,8 +824,24 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
 
         DbFile affectedDbFile = Database.getCatalog().getDatabaseFile(tableId);
-        affectedDbFile.insertTuple(tid, t);
-        // TODO: NO-STEAL: We never evict a dirty page
+        cacheDirtyPages(tid, affectedDbFile.insertTuple(tid, t));
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid, with the same locking and caching of dirty pages as
+     * {@link #insertTuple}. The table is looked up once and its DbFile places
+     * the tuples a page at a time.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+
+        DbFile affectedDbFile = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, affectedDbFile.insertTuples(tid, tuples));
     }
 
     /**
@@ -247,9 +862,27 @@ public class BufferPool {
 
         PageId pid = t.recordId.getPageId();
         DbFile affectedDbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        affectedDbFile.deleteTuple(tid, t);
-        // NO-STEAL: We never evict a dirty page
-        LRUCache.remove(pid.hashCode());
+        cacheDirtyPages(tid, affectedDbFile.deleteTuple(tid, t));
+    }
+
+    /**
+     * Mark the pages dirtied by an insert or delete and make sure the cache
+     * holds exactly these versions.
+     * NO-STEAL: the partitions never evict them until the transaction ends.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> dirtyPages) throws DbException {
+        for (Page page : dirtyPages) {
+            page.markDirty(true, tid);
+            BufferPartition partition = partitionFor(page.getId());
+            while (true) {
+                try {
+                    partition.put(page);
+                    break;
+                } catch (DbException e) {
+                    if (!steal(tid, partition)) throw e;
+                }
+            }
+        }
     }
 
     /**
@@ -258,9 +891,11 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (Page p : bufferPool.values()) {
-            flushPage(p.getId());
+        List<PageId> pids = new ArrayList<>();
+        for (BufferPartition partition : partitions) {
+            for (Page p : partition.pages()) pids.add(p.getId());
         }
+        flushPages(pids);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -272,9 +907,7 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        LRUCache.remove(pid.hashCode());
-        bufferPool.remove(pid.hashCode());
-        this.pageNum--;
+        partitionFor(pid).remove(pid);
     }
 
     /**
@@ -282,15 +915,40 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
-        HeapPage pageNeedFlush = (HeapPage) bufferPool.get(pid.hashCode());
-        TransactionId dirtier = pageNeedFlush.isDirty();
-        if (dirtier != null) {
-            Database.getLogFile().logWrite(dirtier, pageNeedFlush.getBeforeImage(), pageNeedFlush);
-            Database.getLogFile().force();
-            DbFile flushDbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            flushDbFile.writePage(pageNeedFlush);
-            pageNeedFlush.markDirty(false, null);
-            makeRecentUsed(pid.hashCode());
+        flushPages(Collections.singletonList(pid));
+    }
+
+    /**
+     * Flushes a batch of pages to disk. The UPDATE records of all of them
+     * are logged first and the log is forced once for the batch, up to the
+     * latest of their pageLSNs (WAL).
+     * @param pids IDs of the pages to flush; clean or uncached ones are skipped
+     */
+    private synchronized void flushPages(List<PageId> pids) throws IOException {
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : pids) {
+            Page page = partitionFor(pid).peek(pid);
+            if (page == null) continue;
+            TransactionId dirtier = page.isDirty();
+            if (dirtier == null) continue;
+            // The rows of several transactions: their images could only be
+            // logged under one of them, so only commits write the page
+            if (page instanceof HeapPage && ((HeapPage) page).hasOtherPendingSlots(dirtier)) continue;
+            // WAL: committed pages were logged at commit
+            if (!COMMITTED.equals(dirtier))
+                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            dirty.add(page);
+        }
+        if (dirty.isEmpty()) return;
+        long lsn = 0;
+        for (Page page : dirty) lsn = Math.max(lsn, page.getLSN());
+        Database.getLogFile().force(lsn);
+        for (Page page : dirty) {
+            DbFile flushDbFile = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+            flushDbFile.writePage(page);
+            // Pending rows of running transactions must not be evicted
+            if (!(page instanceof HeapPage && ((HeapPage) page).hasPendingSlots()))
+                page.markDirty(false, null);
         }
     }
 
@@ -298,24 +956,13 @@ public class BufferPool {
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // TODO: some code goes here
-        for (Page p : bufferPool.values()) {
-            if (tid.equals(p.isDirty())) flushPage(p.getId());
+        List<PageId> pids = new ArrayList<>();
+        for (BufferPartition partition : partitions) {
+            for (Page p : partition.pages()) {
+                if (tid.equals(p.isDirty())) pids.add(p.getId());
+            }
         }
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized void evictPage() throws DbException {
-        if (LRUCache.size() == 0) throw new DbException("Empty LRU Cache");
-
-        int evictedPidKey = LRUCache.peek();
-        HeapPage evictedPage = (HeapPage) bufferPool.get(evictedPidKey);
-
-        // NO-STEAL: Never flush dirty page into disk
-        if (evictedPage.isDirty() == null) discardPage(evictedPage.pid);
-        else LRUCache.poll();
+        flushPages(pids);
     }
 
 }
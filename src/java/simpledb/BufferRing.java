@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * Access hint for a large sequential scan: the few pages most recently read
+ * by the scan. Pages fetched through a ring do not count as accesses for the
+ * replacement policy, and once the ring is full each page the scan reads in
+ * takes the place of the oldest one, which leaves the pool again unless
+ * another request used it meanwhile. A scan of a table much larger than the
+ * pool thus recycles a few frames instead of evicting the working set of
+ * the other transactions.
+ * <p>
+ * A ring belongs to a single scan and is not thread safe.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    private final PageId[] pages;
+    private int next;
+
+    /**
+     * @param size number of pages the ring keeps
+     */
+    public BufferRing(int size) {
+        if (size < 1) throw new IllegalArgumentException("Invalid ring size: " + size);
+        this.pages = new PageId[size];
+        this.next = 0;
+    }
+
+    /** @return the number of pages the ring keeps */
+    public int size() {
+        return pages.length;
+    }
+
+    /**
+     * Add a page read by the scan, unless it was the last one added
+     * @return the page it replaces, or null if there is none
+     */
+    PageId add(PageId pid) {
+        int last = (next + pages.length - 1) % pages.length;
+        if (pid.equals(pages[last])) return null;
+        PageId replaced = pages[next];
+        pages[next] = pid;
+        next = (next + 1) % pages.length;
+        return replaced;
+    }
+}
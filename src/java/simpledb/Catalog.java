@@ -145,6 +145,13 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // TODO:some code goes here
+        for (TableInfo info : tableInfoMap.values()) {
+            try {
+                info.tableFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         tableInfoMap.clear();
         tableNameIdMap.clear();
     }
@@ -160,7 +167,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [storage]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -191,8 +198,22 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                // the file layout follows the closing parenthesis, heap by default
+                String storage = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabFile;
+                if (storage.isEmpty() || storage.equals("heap"))
+                    tabFile = new HeapFile(tableFile, t);
+                else if (storage.equals("pax"))
+                    tabFile = new PaxFile(tableFile, t);
+                else if (storage.equals("slotted"))
+                    tabFile = new SlottedFile(tableFile, t);
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
+                addTable(tabFile,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement.
+ * Pages sit in a circular array of frames with a reference bit each. A hit only
+ * sets the bit; eviction sweeps the hand, clearing set bits and taking the
+ * first evictable page whose bit is already clear.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> frames;
+    private final ArrayList<Boolean> referenced;
+    /**
+     * key : PageId
+     * value : index of its frame
+     */
+    private final HashMap<PageId, Integer> frameIndex;
+    private final ArrayDeque<Integer> freeFrames;
+    private int hand;
+
+    public ClockReplacementPolicy(int capacity) {
+        this.frames = new ArrayList<>(capacity);
+        this.referenced = new ArrayList<>(capacity);
+        this.frameIndex = new HashMap<>();
+        this.freeFrames = new ArrayDeque<>();
+        this.hand = 0;
+    }
+
+    @Override
+    public void recordInsert(PageId pid) {
+        if (frameIndex.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        int idx;
+        if (!freeFrames.isEmpty()) {
+            idx = freeFrames.pop();
+            frames.set(idx, pid);
+            referenced.set(idx, true);
+        } else {
+            idx = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        }
+        frameIndex.put(pid, idx);
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        Integer idx = frameIndex.get(pid);
+        if (idx == null) recordInsert(pid);
+        else referenced.set(idx, true);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        Integer idx = frameIndex.remove(pid);
+        if (idx == null) return;
+        frames.set(idx, null);
+        referenced.set(idx, false);
+        freeFrames.push(idx);
+    }
+
+    @Override
+    public PageId evict(Evictable evictable) {
+        int n = frames.size();
+        // Two full sweeps: the first one may only clear reference bits
+        for (int step = 0; step < 2 * n; step++) {
+            if (hand >= n) hand = 0;
+            int idx = hand++;
+            PageId pid = frames.get(idx);
+            if (pid == null) continue;
+            if (referenced.get(idx)) {
+                referenced.set(idx, false);
+                continue;
+            }
+            if (evictable.canEvict(pid)) {
+                remove(pid);
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return frameIndex.size();
+    }
+}
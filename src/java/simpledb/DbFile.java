@@ -43,6 +43,27 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples to the file on behalf of transaction.
+     * Files may override this to place the tuples a page at a time; by
+     * default the tuples are inserted one by one with {@link #insertTuple}.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add, each updated to reflect where it is
+     *          stored in this file.
+     * @return An ArrayList contain the pages that were modified, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashSet<Page> dirtyPages = new LinkedHashSet<>();
+        while (tuples.hasNext()) {
+            dirtyPages.addAll(insertTuple(tid, tuples.next()));
+        }
+        return new ArrayList<>(dirtyPages);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -88,4 +109,11 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Close the open handles on the file, if it keeps any. The file is
+     * opened again by the next read or write.
+     */
+    public default void close() throws IOException {
+    }
 }
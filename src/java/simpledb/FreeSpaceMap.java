@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Free-space map of a HeapFile: one byte per page telling roughly how many
+ * of its slots are free, so that an insert can go straight to a page with
+ * room instead of locking and loading every page of the table. A
+ * SlottedFile keeps the free bytes of its pages in the same way.
+ * <p>
+ * A byte is 0 if nothing is known about the page, FULL if the page has no
+ * free slot, and FULL + 1 up to FULL + BUCKETS for a page whose free slots
+ * fill up to that many BUCKETS-th of the page.
+ * <p>
+ * The map is a hint. The in-memory entries follow the inserts and deletes
+ * on cached pages, while the copy in the side file "&lt;file&gt;.fsm" is
+ * written together with each page, so it describes the pages on disk.
+ * Users check the page itself before they rely on an entry, and pages the
+ * map knows nothing about count as having room.
+ */
+class FreeSpaceMap {
+
+    static final byte UNKNOWN = 0;
+    static final byte FULL = 1;
+    static final int BUCKETS = 15;
+
+    private final File file;
+    private final PageIO io;
+    private byte[] entries;
+    private boolean loaded;
+
+    FreeSpaceMap(File dataFile) {
+        this.file = sideFile(dataFile);
+        this.io = new PageIO(file);
+        this.entries = new byte[0];
+        this.loaded = false;
+    }
+
+    /** @return the entry of a page with free slots out of numSlots */
+    static byte entryOf(int free, int numSlots) {
+        if (free <= 0) return FULL;
+        return (byte) (FULL + Math.max(1, (long) free * BUCKETS / numSlots));
+    }
+
+    /** @return the side file of a data file */
+    static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    /** Drop the side file of a data file that is being written from scratch */
+    static void discard(File dataFile) {
+        sideFile(dataFile).delete();
+    }
+
+    // Read the side file the first time the map is searched, keeping the
+    // entries of pages that were seen since. A side file with more pages
+    // than the data file belongs to an older file of that name.
+    private void load(int numPages) throws IOException {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+        long size = io.size();
+        if (size == 0 || size > numPages) return;
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        if (!io.read(0, buf)) return;
+        byte[] disk = buf.array();
+        ensureCapacity(disk.length - 1);
+        for (int i = 0; i < disk.length; i++) {
+            if (entries[i] == UNKNOWN) entries[i] = disk[i];
+        }
+    }
+
+    private void ensureCapacity(int pageNo) {
+        if (pageNo >= entries.length)
+            entries = Arrays.copyOf(entries, Math.max(pageNo + 1, entries.length * 2));
+    }
+
+    /** Record the free space of a cached page */
+    synchronized void update(int pageNo, int free, int numSlots) {
+        ensureCapacity(pageNo);
+        entries[pageNo] = entryOf(free, numSlots);
+    }
+
+    /** Record the free space of a page in the side file, as it is written */
+    synchronized void persist(int pageNo, int free, int numSlots) throws IOException {
+        byte entry = entryOf(free, numSlots);
+        io.write(pageNo, ByteBuffer.wrap(new byte[] {entry}));
+        // a page written without being cached, e.g. by recovery
+        if (pageNo >= entries.length || entries[pageNo] == UNKNOWN) update(pageNo, free, numSlots);
+    }
+
+    /**
+     * @return the first page from from on, below numPages, that may have a
+     *         free slot, or -1 if there is none
+     */
+    synchronized int nextFree(int from, int numPages) throws IOException {
+        load(numPages);
+        for (int i = from; i < numPages; i++) {
+            if (i >= entries.length || entries[i] != FULL) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first page from from on, below numPages, that may have
+     *         free out of total free, or -1 if there is none. Pages whose
+     *         entry is below that of free surely have less.
+     */
+    synchronized int nextWithRoom(int from, int numPages, int free, int total) throws IOException {
+        load(numPages);
+        byte needed = entryOf(free, total);
+        for (int i = from; i < numPages; i++) {
+            if (i >= entries.length || entries[i] == UNKNOWN || entries[i] >= needed) return i;
+        }
+        return -1;
+    }
+
+    /** @return the entry of page pageNo */
+    synchronized byte get(int pageNo) {
+        return pageNo < entries.length ? entries[pageNo] : UNKNOWN;
+    }
+
+    void close() throws IOException {
+        io.close();
+    }
+}
@@ -2,9 +2,9 @@ package simpledb;
 
 import javax.xml.crypto.Data;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -20,6 +20,13 @@ public class HeapFile implements DbFile {
 
     File backingFile;
     TupleDesc td;
+    private final PageIO io;
+    private final FreeSpaceMap freeSpace;
+    private final ZoneMap zoneMap;
+    private final PageChecksums checksums;
+    // Writing a page and its checksum is atomic for the readers of the page
+    private final ReentrantReadWriteLock pageLock = new ReentrantReadWriteLock();
+    private volatile boolean memoryMapped;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -31,6 +38,11 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         this.backingFile = f;
         this.td = td;
+        this.io = new PageIO(f);
+        this.freeSpace = new FreeSpaceMap(f);
+        this.zoneMap = new ZoneMap(f, td);
+        this.checksums = new PageChecksums(f);
+        this.memoryMapped = Boolean.getBoolean("simpledb.MmapHeapFiles");
     }
 
     /**
@@ -64,48 +76,94 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Read pages from a memory mapping of the backing file instead of copying
+     * them through the file channel. Suits large tables that are mostly read.
+     * Defaults to the simpledb.MmapHeapFiles system property.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
     // see DbFile.java for javadocs
+    // The checksum of the page is verified before the page is parsed
     public Page readPage(PageId pid) {
-        int pageSize = BufferPool.getPageSize();
-        int fileSize = (int) backingFile.length();
-        int pageNo = pid.getPageNumber();
-        // System.out.println("Read pageNo: " + pageNo + ", pageId: " + pid.hashCode());
+        pageLock.readLock().lock();
         try {
-            RandomAccessFile data = new RandomAccessFile(this.backingFile, "r");
-            byte[] pageBytes = new byte[pageSize];
-            // Read file per pageSize byte
-            for (int i = 0, num = fileSize / pageSize; i < num; i++) {
-                data.readFully(pageBytes);
-                // Page number matches
-                if (i == pageNo) {
-                    return new HeapPage((HeapPageId) pid, pageBytes);
+            int pageNo = pid.getPageNumber();
+            HeapPage page = null;
+            if (memoryMapped) {
+                ByteBuffer data = io.mapPage(pageNo);
+                if (data != null) {
+                    checksums.verify(pageNo, data);
+                    page = new HeapPage((HeapPageId) pid, data);
                 }
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            if (page == null) {
+                byte[] data = io.readPage(pageNo);
+                checksums.verify(pageNo, ByteBuffer.wrap(data));
+                page = new HeapPage((HeapPageId) pid, data);
+            }
+            noteFreeSpace(page);
+            zoneMap.read(page);
+            return page;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            pageLock.readLock().unlock();
         }
-        throw new IndexOutOfBoundsException("Page number exceed file size limit");
-    }
-
-    private FileInputStream getFis(File f) throws FileNotFoundException {
-        return new FileInputStream(this.backingFile);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
+        int pageNo = page.getId().getPageNumber();
+        byte[] data = page.getPageData();
+        pageLock.writeLock().lock();
         try {
-            byte[] pageBytes = page.getPageData();
-            RandomAccessFile writeFile = new RandomAccessFile(this.backingFile, "rw");
-            long positionToWrite = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
-            writeFile.seek(positionToWrite);
-            writeFile.write(pageBytes);
-        } catch (IOException e) {
-            e.printStackTrace();
+            // The checksum goes first: after a crash in between, the previous one still matches
+            checksums.record(pageNo, data);
+            io.writePage(pageNo, data);
+        } finally {
+            pageLock.writeLock().unlock();
+        }
+        HeapPage hp = (HeapPage) page;
+        freeSpace.persist(pageNo, hp.getNumEmptySlots(), hp.numSlots);
+        zoneMap.persist(hp);
+    }
+
+    /**
+     * Accept only the checksums the pages were last written with, once all
+     * of them are on disk, e.g. at a checkpoint
+     */
+    void settleChecksums() throws IOException {
+        pageLock.writeLock().lock();
+        try {
+            checksums.settle();
+        } finally {
+            pageLock.writeLock().unlock();
         }
     }
 
+    /** Record the number of free slots of a page in the free-space map */
+    void noteFreeSpace(HeapPage page) {
+        freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots(), page.numSlots);
+    }
+
+    /**
+     * Close the open handles on the backing file. The file is opened again by
+     * the next read or write.
+     */
+    public void close() throws IOException {
+        io.close();
+        freeSpace.close();
+        zoneMap.close();
+        checksums.close();
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -118,32 +176,76 @@ public class HeapFile implements DbFile {
     // else, create a new page, write the space on disk(empty page), mark it dirty
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // Iterate through all pages in this DbFile via BufferPool
-        // Find a page with empty slots
+        if (rowLocked(tid)) return insertTupleRowLocked(tid, t);
+        // Only lock and load the pages the free-space map says have room
         HeapPage chosenPage = null;
-        for (int i = 0; i < this.numPages(); i++) {
+        for (int i = freeSpace.nextFree(0, numPages()); i >= 0; i = freeSpace.nextFree(i + 1, numPages())) {
             HeapPage curPage = (HeapPage) Database.getBufferPool().getPage(
                     tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
-            if (curPage.getNumEmptySlots() > 0) chosenPage = curPage;
+            if (curPage.getNumEmptySlots() > 0) {
+                chosenPage = curPage;
+                break;
+            }
+            noteFreeSpace(curPage);
         }
         // No idle pages, create a new one
         if (chosenPage == null) {
-            HeapPageId hpId = new HeapPageId(this.getId(), numPages());
-            Files.write(this.backingFile.toPath(), HeapPage.createEmptyPageData(), StandardOpenOption.APPEND);
+            HeapPageId hpId = new HeapPageId(this.getId(), io.appendPage(HeapPage.createEmptyPageData()));
             chosenPage = (HeapPage) Database.getBufferPool().getPage(tid, hpId, Permissions.READ_WRITE);
         }
         // Insert tuple and mark the page as dirty
         chosenPage.insertTuple(t);
         chosenPage.markDirty(true, tid);
+        noteFreeSpace(chosenPage);
+        zoneMap.include(chosenPage.getId().getPageNumber(), t);
 
         return new ArrayList<>(List.of(chosenPage));
     }
 
+    // Insert a batch of tuples, filling one page before moving on to the next.
+    // The tuples that do not fit into the pages with room go to new pages,
+    // which are added to the file with one extension.
+    @Override
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        if (rowLocked(tid)) return DbFile.super.insertTuples(tid, tuples);
+        BufferPool bp = Database.getBufferPool();
+        LinkedHashSet<Page> dirtyPages = new LinkedHashSet<>();
+        HeapPage page = null;
+        int i = freeSpace.nextFree(0, numPages());
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            while (page == null || page.getNumEmptySlots() == 0) {
+                if (page != null) noteFreeSpace(page);
+                if (i < 0) {
+                    // Out of pages with room, extend the file for the rest
+                    ArrayList<Tuple> rest = new ArrayList<>();
+                    rest.add(t);
+                    while (tuples.hasNext()) rest.add(tuples.next());
+                    int slots = HeapPage.getNumTuples(this.td);
+                    int count = (rest.size() + slots - 1) / slots;
+                    i = io.appendPages(HeapPage.createEmptyPageData(), count);
+                    tuples = rest.iterator();
+                    t = tuples.next();
+                }
+                page = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+                i = freeSpace.nextFree(i + 1, numPages());
+            }
+            page.insertTuple(t);
+            page.markDirty(true, tid);
+            zoneMap.include(page.getId().getPageNumber(), t);
+            dirtyPages.add(page);
+        }
+        for (Page dirty : dirtyPages) noteFreeSpace((HeapPage) dirty);
+        return new ArrayList<>(dirtyPages);
+    }
+
     // Delete a tuple on the specific page in memory(BufferPool cache)
     // Mark it dirty; Hasn't done anything on disk page
     // Will need to flush/write the modification on disk
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
+        if (rowLocked(tid)) return deleteTupleRowLocked(tid, t);
         PageId pageId = t.recordId.getPageId();
         // Read via bufferPool, make sure the page will cache in memory
         HeapPage affectedPage = (HeapPage) Database.getBufferPool().getPage(
@@ -152,24 +254,96 @@ public class HeapFile implements DbFile {
         // Delete tuple and mark the page as dirty
         affectedPage.deleteTuple(t);
         affectedPage.markDirty(true, tid);
+        noteFreeSpace(affectedPage);
 
         return new ArrayList<>(List.of(affectedPage));
     }
 
+    // Row locking applies unless tid locked the whole table X, e.g. for a
+    // bulk load: then no other transaction can have rows on its pages
+    private boolean rowLocked(TransactionId tid) {
+        BufferPool bp = Database.getBufferPool();
+        return bp.isRowLocking() && bp.getLockManager().getTableLockMode(tid, getId()) != LockMode.X;
+    }
+
+    // Row locking: lock the pages IX and only the new tuple X, so that
+    // writers can fill different slots of the same page at once.
+    // The page monitor is the latch that guards the physical slot change.
+    private ArrayList<Page> insertTupleRowLocked(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        int i = freeSpace.nextFree(0, numPages());
+        while (true) {
+            // No page with a usable slot, append an empty one
+            if (i < 0) i = io.appendPage(HeapPage.createEmptyPageData());
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), i), LockMode.IX);
+            boolean inserted;
+            synchronized (page) {
+                inserted = page.insertTuple(tid, t);
+                if (inserted) {
+                    page.markDirty(true, tid);
+                    zoneMap.include(i, t);
+                }
+                noteFreeSpace(page);
+            }
+            if (inserted) {
+                bp.lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+                return new ArrayList<>(List.of(page));
+            }
+            i = freeSpace.nextFree(i + 1, numPages());
+        }
+    }
+
+    private ArrayList<Page> deleteTupleRowLocked(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        bp.lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+        HeapPage page = (HeapPage) bp.getPage(tid, t.getRecordId().getPageId(), LockMode.IX);
+        synchronized (page) {
+            page.deleteTuple(tid, t);
+            page.markDirty(true, tid);
+            noteFreeSpace(page);
+        }
+        return new ArrayList<>(List.of(page));
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file that skips the pages
+     * whose zone map entry shows that none of their tuples satisfies all
+     * of the predicates on INT_TYPE fields, without fetching them through
+     * the BufferPool. It still returns every tuple of the pages it reads, so
+     * the predicates have to be applied on top of it.
+     * <p>
+     * If the BufferPool reads ahead, pages after the current one are read
+     * in the background once the iterator moves through the file in order.
+     * A file larger than the BufferPool is read through a
+     * {@link BufferRing}, so that scanning it does not evict the pages
+     * other transactions use.
+     *
+     * @see ReadAhead
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
         return new DbFileIterator() {
             int pageNo;
             BufferPool bp;
             HeapPageId curPageId;
             Iterator<Tuple> curPageIter;
             HeapPage curPage;
+            ReadAhead readAhead;
+            BufferRing ring;
             boolean isOpen = false;
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 // Use global BufferPool
                 bp = Database.getBufferPool();
+                ring = bp.scanRing(numPages());
                 isOpen = true;
+                startReadAhead();
                 setIteratorPageNo(0);
             }
 
@@ -181,7 +355,9 @@ public class HeapFile implements DbFile {
                 // Check if there's a valid next page
                 boolean hasNextPage = false;
                 for (int i = this.pageNo + 1; i < numPages(); i++) {
-                    HeapPage curPage = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
+                    if (skip(i)) continue;
+                    fetching(i);
+                    HeapPage curPage = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY, ring);
                     if (curPage.getNumEmptySlots() < curPage.numSlots) {
                         hasNextPage = true;
                         break;
@@ -206,12 +382,14 @@ public class HeapFile implements DbFile {
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
                 // Reset fields
+                startReadAhead();
                 setIteratorPageNo(0);
             }
 
             @Override
             public void close() {
                 isOpen = false;
+                readAhead = null;
             }
 
             /**
@@ -224,9 +402,44 @@ public class HeapFile implements DbFile {
             private void setIteratorPageNo(int _pageNo) throws TransactionAbortedException, DbException {
                 this.pageNo = _pageNo;
                 this.curPageId = new HeapPageId(getId(), pageNo);
-                this.curPage = (HeapPage) bp.getPage(tid, curPageId, Permissions.READ_ONLY);
+                if (skip(pageNo)) {
+                    this.curPage = null;
+                    this.curPageIter = Collections.emptyIterator();
+                    return;
+                }
+                fetching(pageNo);
+                this.curPage = (HeapPage) bp.getPage(tid, curPageId, Permissions.READ_ONLY, ring);
                 this.curPageIter = curPage.iterator();
             }
+
+            private void startReadAhead() {
+                if (!bp.isReadAhead()) {
+                    readAhead = null;
+                    return;
+                }
+                readAhead = new ReadAhead(bp, getId(), i -> {
+                    try {
+                        return !skip(i);
+                    } catch (DbException e) {
+                        return true;
+                    }
+                });
+            }
+
+            // Tell the read-ahead which page is fetched next
+            private void fetching(int i) {
+                if (readAhead != null) readAhead.access(i, numPages());
+            }
+
+            // Whether the zone map rules page i out
+            private boolean skip(int i) throws DbException {
+                if (predicates.isEmpty()) return false;
+                try {
+                    return !zoneMap.mayMatch(i, numPages(), predicates);
+                } catch (IOException e) {
+                    throw new DbException("could not read the zone map: " + e.getMessage());
+                }
+            }
         };
     }
 
@@ -105,6 +105,9 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FreeSpaceMap.discard(outFile);
+    ZoneMap.discard(outFile);
+    PageChecksums.discard(outFile);
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -18,10 +20,99 @@ public class HeapPage implements Page {
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
+    /*
+     * The page as it was read, never changed through this page; tuples are
+     * decoded from it lazily. A view of the buffer the page was read from,
+     * e.g. a memory mapped file, so a page that is only read is not copied.
+     * The file may be written while the page is cached, but only with the
+     * contents of this page, in which the slots that are still read from
+     * here keep their bytes; changed slots are read from image.
+     */
+    final ByteBuffer data;
+    // key : field index, value : offset of the field in a tuple slot
+    final int[] fieldOffsets;
+    /*
+     * The current bytes of the page, patched in place by getPageData where
+     * slots changed since its last call; null while it would equal data.
+     * Guarded by imageLock, like changedSlots.
+     */
+    private byte[] image;
+    private ByteBuffer imageBuf;
+    private final BitSet changedSlots = new BitSet();
+    private final Object imageLock = new Object();
     BitSet headerBitSet;
     TransactionId lastDirtyTid;
+    // LSN of the last logged change, see Page.getLSN
+    private volatile long lsn;
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    // guards oldData
+    private final Object oldDataLock = new Object();
+
+    /**
+     * How to undo the change of one slot by a transaction that has not
+     * completed yet. Only used with row locking, where several transactions
+     * may change different slots of the page at the same time.
+     */
+    private static class SlotUndo {
+        final TransactionId tid;
+        final boolean wasUsed;
+        final Tuple oldTuple;
+
+        SlotUndo(TransactionId tid, boolean wasUsed, Tuple oldTuple) {
+            this.tid = tid;
+            this.wasUsed = wasUsed;
+            this.oldTuple = oldTuple;
+        }
+    }
+
+    /**
+     * key : slot number
+     * value : undo of its uncommitted change, null until row locking is used
+     */
+    private HashMap<Integer, SlotUndo> pendingSlots;
+
+    /**
+     * A tuple of the page that decodes its fields from the page bytes the
+     * first time they are read, so a query that reads one column of a page
+     * only builds the Field objects of that column.
+     */
+    static class LazyTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+        private final HeapPage page;
+        private final int slot;
+        private boolean modified;
+
+        LazyTuple(HeapPage page, int slot) {
+            super(page.td);
+            this.page = page;
+            this.slot = slot;
+            this.modified = false;
+            setRecordId(new RecordId(page.pid, slot));
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = fields[i];
+            if (f == null) {
+                f = page.td.getFieldType(i).parse(page.data, page.slotOffset(slot) + page.fieldOffsets[i]);
+                fields[i] = f;
+            }
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            page.captureBeforeImage();
+            modified = true;
+            super.setField(i, f);
+            page.markSlotChanged(slot);
+        }
+
+        /** @return whether this tuple still is slot of the bytes page was read with */
+        boolean isOriginal(HeapPage page, int slot) {
+            return !modified && this.page == page && this.slot == slot;
+        }
+    }
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -40,35 +131,58 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page as it is on disk,
+     * from its position up to its limit, e.g. a slice of a memory mapped
+     * file. The page keeps a view of the buffer and decodes its tuples from
+     * it; the bytes are only copied by the first change of the page.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        // keep the raw page; tuples and fields are decoded from it on demand
+        int pageSize = BufferPool.getPageSize();
+        if (data.remaining() >= pageSize) {
+            this.data = data.slice();
+        } else {
+            byte[] padded = new byte[pageSize];
+            data.duplicate().get(padded, 0, data.remaining());
+            this.data = ByteBuffer.wrap(padded);
+        }
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
 
+        header = new byte[getHeaderSize()];
+        this.data.duplicate().get(header);
         headerBitSet = BitSet.valueOf(header);
-
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // a clean page has no before image of its own, see captureBeforeImage
+        oldData = null;
+    }
+
+    // Copy len bytes of the page as it was read, from offset on, to dst at offset
+    private void copyData(int offset, byte[] dst, int len) {
+        ByteBuffer src = data.duplicate();
+        ((Buffer) src).position(offset);
+        src.get(dst, offset, len);
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
+        return getNumTuples(td);
+    }
+
+    /** @return the number of tuple slots of a page of a table with schema td */
+    static int getNumTuples(TupleDesc td) {
         return (int) Math.floor((double) BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1));
     }
 
@@ -85,10 +199,11 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
+            synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
+            // not modified since the last before image: that is the page itself
+            if (oldDataRef == null) oldDataRef = getPageData();
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -98,10 +213,22 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * The current contents become the before image. It is not copied here
+     * but by the first modification that follows, so pages that are only
+     * read never hold a second copy of themselves.
+     */
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Called before every change of the page's contents: keep the contents
+    // as the before image, unless an earlier change did so already
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) oldData = getPageData();
         }
     }
 
@@ -113,39 +240,23 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in slot i, built from the page bytes the first time
+     *   it is used, or null if the slot has never held a tuple
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        // A used slot without a tuple still holds the tuple it was read with
+        if (t == null && isSlotUsed(i)) {
+            t = new LazyTuple(this, i);
+            tuples[i] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
+    private int slotOffset(int i) {
+        return header.length + i * td.getSize();
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -158,64 +269,52 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        synchronized (imageLock) {
+            if (!changedSlots.isEmpty()) patchImage();
+            if (image != null) return image.clone();
+            byte[] copy = new byte[BufferPool.getPageSize()];
+            copyData(0, copy, copy.length);
+            return copy;
         }
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    // Bring image up to date by rewriting only the header and the slots that
+    // changed since the last call
+    private void patchImage() {
+        int len = BufferPool.getPageSize();
+        if (image == null) {
+            image = new byte[len];
+            copyData(0, image, len);
+            imageBuf = ByteBuffer.wrap(image);
+            // padding
+            Arrays.fill(image, slotOffset(tuples.length), len, (byte) 0);
+        }
+        System.arraycopy(header, 0, image, 0, header.length);
 
-            // empty slot
+        int tupleSize = td.getSize();
+        for (int i = changedSlots.nextSetBit(0); i >= 0; i = changedSlots.nextSetBit(i + 1)) {
+            int offset = slotOffset(i);
+            Tuple t = tuples[i];
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                // empty slot
+                Arrays.fill(image, offset, offset + tupleSize, (byte) 0);
+            } else if (t == null || (t instanceof LazyTuple && ((LazyTuple) t).isOriginal(this, i))) {
+                // back to the tuple the page was read with
+                copyData(offset, image, tupleSize);
+            } else {
+                ((Buffer) imageBuf).position(offset);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(imageBuf);
             }
         }
+        changedSlots.clear();
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    // A slot's tuple or used bit changed, getPageData has to rewrite it
+    void markSlotChanged(int i) {
+        synchronized (imageLock) {
+            changedSlots.set(i);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -242,12 +341,13 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         int tupNo = t.recordId.getTupleNumber();
 
-        if (!tuples[tupNo].equals(t))
-            throw new DbException("delete-tuple doesn't exist");
-
         if (!this.headerBitSet.get(tupNo))
             throw new DbException("tuple has already been deleted");
 
+        if (!tupleAt(tupNo).equals(t))
+            throw new DbException("delete-tuple doesn't exist");
+
+        captureBeforeImage();
         markSlotUsed(tupNo, false);
     }
 
@@ -269,10 +369,156 @@ public class HeapPage implements Page {
         t.setRecordId(new RecordId(this.pid, insertSlotNo));
 
         // Update this page
+        captureBeforeImage();
         tuples[insertSlotNo] = t;
         markSlotUsed(insertSlotNo, true);
     }
 
+    /**
+     * Adds the specified tuple to the page on behalf of tid under row
+     * locking. The slot stays pending until tid completes: a slot another
+     * transaction has pending, even if it is empty now, is never reused.
+     * The caller must hold the page's monitor.
+     *
+     * @return false if there is no free slot that can be used
+     * @throws DbException if the tupledesc is mismatch.
+     */
+    public boolean insertTuple(TransactionId tid, Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Not able to insert tuple into page :" + this.pid.pageNo);
+        for (int i = 0; i < tuples.length; i++) {
+            if (isSlotUsed(i) || !isSlotFree(tid, i)) continue;
+            captureBeforeImage();
+            recordUndo(tid, i);
+            t.setRecordId(new RecordId(this.pid, i));
+            tuples[i] = t;
+            markSlotUsed(i, true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Delete the specified tuple from the page on behalf of tid under row
+     * locking, remembering it until tid completes. The caller must hold the
+     * page's monitor and an exclusive lock on the tuple.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        int tupNo = t.recordId.getTupleNumber();
+        if (!isSlotUsed(tupNo) || !tupleAt(tupNo).equals(t))
+            throw new DbException("delete-tuple doesn't exist");
+        captureBeforeImage();
+        recordUndo(tid, tupNo);
+        markSlotUsed(tupNo, false);
+    }
+
+    private boolean isSlotFree(TransactionId tid, int slot) {
+        SlotUndo undo = pendingSlots == null ? null : pendingSlots.get(slot);
+        return undo == null || undo.tid.equals(tid);
+    }
+
+    private void recordUndo(TransactionId tid, int slot) {
+        if (pendingSlots == null) pendingSlots = new HashMap<>();
+        // The first change of the slot knows its committed state
+        pendingSlots.putIfAbsent(slot, new SlotUndo(tid, isSlotUsed(slot), tupleAt(slot)));
+    }
+
+    private void undoSlot(int slot, SlotUndo undo) {
+        captureBeforeImage();
+        tuples[slot] = undo.oldTuple;
+        markSlotUsed(slot, undo.wasUsed);
+    }
+
+    // The page stays dirty as long as any transaction has pending slots
+    private void markPendingDirty() {
+        if (pendingSlots.isEmpty()) markDirty(false, null);
+        else markDirty(true, pendingSlots.values().iterator().next().tid);
+    }
+
+    /**
+     * @return true if some transaction has uncommitted row changes on this page
+     */
+    public boolean hasPendingSlots() {
+        return pendingSlots != null && !pendingSlots.isEmpty();
+    }
+
+    /**
+     * @return true if tid has uncommitted row changes on this page
+     */
+    public boolean hasPendingSlots(TransactionId tid) {
+        if (pendingSlots == null) return false;
+        for (SlotUndo undo : pendingSlots.values()) {
+            if (undo.tid.equals(tid)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a transaction other than tid has uncommitted row
+     *         changes on this page
+     */
+    public boolean hasOtherPendingSlots(TransactionId tid) {
+        if (pendingSlots == null) return false;
+        for (SlotUndo undo : pendingSlots.values()) {
+            if (!undo.tid.equals(tid)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the page as it will be once tid commits: the committed slots
+     * and the changes of tid, without the pending changes of other
+     * transactions. The caller must hold the page's monitor.
+     */
+    public HeapPage getCommittedImage(TransactionId tid) {
+        HeapPage image;
+        try {
+            image = new HeapPage(pid, getPageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+        if (pendingSlots != null) {
+            for (Map.Entry<Integer, SlotUndo> pending : pendingSlots.entrySet()) {
+                if (!pending.getValue().tid.equals(tid)) image.undoSlot(pending.getKey(), pending.getValue());
+            }
+        }
+        return image;
+    }
+
+    /**
+     * tid committed and image, taken by {@link #getCommittedImage}, is on
+     * disk: forget the pending slots of tid. The caller must hold the page's
+     * monitor.
+     */
+    public void commitSlots(TransactionId tid, HeapPage image) {
+        pendingSlots.values().removeIf(undo -> undo.tid.equals(tid));
+        byte[] committed = image.getPageData();
+        synchronized (oldDataLock) {
+            oldData = committed;
+        }
+        markPendingDirty();
+    }
+
+    /**
+     * tid aborted: undo its pending slots, leaving the changes of other
+     * transactions alone. The caller must hold the page's monitor.
+     */
+    public void rollbackSlots(TransactionId tid) {
+        if (pendingSlots == null) return;
+        Iterator<Map.Entry<Integer, SlotUndo>> it = pendingSlots.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, SlotUndo> pending = it.next();
+            if (!pending.getValue().tid.equals(tid)) continue;
+            undoSlot(pending.getKey(), pending.getValue());
+            it.remove();
+        }
+        markPendingDirty();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -289,6 +535,14 @@ public class HeapPage implements Page {
         return this.lastDirtyTid;
     }
 
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -312,6 +566,7 @@ public class HeapPage implements Page {
         // Update header byte[]
         if (value) header[i / 8] |= 1 << (i % 8);
         else header[i / 8] &= ~(1 << (i % 8));
+        markSlotChanged(i);
     }
 
     /**
@@ -354,7 +609,7 @@ public class HeapPage implements Page {
             public Tuple next() {
                 // Jump over empty slot
                 while (hasNext() && !headerBitSet.get(i)) i++;
-                if (hasNext()) return tuples[i++];
+                if (hasNext()) return tupleAt(i++);
                 else throw new IndexOutOfBoundsException("Out of bounds at: " + i);
             }
         };
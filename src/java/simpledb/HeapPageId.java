@@ -34,30 +34,14 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * @return a hash code for this page, combining the table number and the
+     *   page number (needed if a PageId is used as a key in a hash table in
+     *   the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
         // TODO:some code goes here
-        int sign = 1;
-        if (this.tableId < 0) sign = -sign;
-        if (this.pageNo < 0) sign = -sign;
-
-        String tableIdString = Integer.toString(Math.abs(tableId));
-        String pageNoString = Integer.toString(Math.abs(pageNo));
-        // Prevent int overflow
-        if (tableIdString.length() >= 8) {
-            // tableId + pageNo
-            //System.out.println(sign * (Math.abs(tableId) + Math.abs(pageNo)));
-            return sign * (Math.abs(tableId) + Math.abs(pageNo));
-        } else {
-            // "tableId" + "pageNo"
-            //System.out.println(tableIdString + ", " + pageNoString);
-            String concat = tableIdString + pageNoString;
-            return sign * Integer.parseInt(concat);
-        }
+        return 31 * tableId + pageNo;
     }
 
     /**
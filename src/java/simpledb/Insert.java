@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -9,6 +10,8 @@ import java.io.IOException;
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+    // Number of child tuples handed to the BufferPool at once
+    static final int BATCH_SIZE = 4096;
     TransactionId tid;
     OpIterator child;
     int tableId;
@@ -74,7 +77,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -86,14 +89,18 @@ public class Insert extends Operator {
         if (hasReturned) return null;
 
         int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (child.hasNext()) {
-            Tuple insertTup = child.next();
-            try {
-                Database.getBufferPool().insertTuple(this.tid, tableId, insertTup);
-            } catch (IOException e) {
-                e.printStackTrace();
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(this.tid, tableId, batch.iterator());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                count += batch.size();
+                batch.clear();
             }
-            count++;
         }
         // System.out.println(count);
         resultTup.setField(0, new IntField(count));
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used replacement.
+ * An access-ordered LinkedHashMap keeps the least recent page at its head, so
+ * both a hit and an insert are O(1).
+ */
+public class LRUReplacementPolicy implements ReplacementPolicy {
+
+    /**
+     * Head of this map is the least recent used pageId
+     */
+    private final LinkedHashMap<PageId, Boolean> lruOrder;
+
+    public LRUReplacementPolicy() {
+        this.lruOrder = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public void recordInsert(PageId pid) {
+        lruOrder.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        // get() moves the entry to the tail in an access-ordered map
+        if (lruOrder.get(pid) == null) lruOrder.put(pid, Boolean.TRUE);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        lruOrder.remove(pid);
+    }
+
+    @Override
+    public PageId evict(Evictable evictable) {
+        Iterator<PageId> it = lruOrder.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.canEvict(pid)) {
+                it.remove();
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return lruOrder.size();
+    }
+}
@@ -1,87 +1,639 @@
 package simpledb;
 
-import javax.xml.crypto.Data;
-import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager keeps the table and page locks of all transactions.
+ * <p>
+ * Locking is hierarchical (see {@link LockMode}): a page S / X lock first
+ * takes an IS / IX intention lock on its table, and a table S, SIX or X lock
+ * covers the pages it implies without locking them one by one. Scans can
+ * lock a whole table up front, and a transaction holding more than
+ * escalationThreshold page locks in one table has them escalated to a single
+ * table lock whenever that can be granted without waiting.
+ * <p>
+ * With row locking, tuples are locked S or X by RecordId below an IS / IX
+ * lock on their page, so writers changing different slots of the same page
+ * do not block each other.
+ * <p>
+ * Every locked table or page has a {@link ResourceLock} with a FIFO queue of
+ * blocked requests. A request waits on its own Condition; when a lock is
+ * released the manager grants queued requests in order and signals exactly
+ * the requests it granted, so a release never wakes up transactions that
+ * would just go back to sleep. Lock upgrades (e.g. SHARED to EXCLUSIVE by
+ * the same transaction) jump to the front of the queue.
+ * <p>
+ * Deadlocks are handled according to the {@link DeadlockPolicy}. DETECT
+ * finds them on a {@link WaitsForGraph} that is updated whenever the queue
+ * of a resource changes; only the edges added by that change are checked for
+ * cycles and the transaction aborted to break a cycle is chosen by the
+ * {@link VictimPolicy}. WAIT_DIE and WOUND_WAIT prevent deadlocks instead,
+ * using the TransactionId order as timestamps (smaller is older), and never
+ * build the graph.
+ * <p>
+ * All state is guarded by a single latch that is only held for bookkeeping,
+ * never while a transaction is blocked.
+ */
 public class LockManager {
-    HashMap<TransactionId, PageId> waitlist;
-    HashMap<PageId, Permissions> pageLockMap;
-    HashMap<TransactionId, Set<PageId>> tidToPages;
-    HashMap<PageId, Set<TransactionId>> pageToTids;
 
+    /** Default number of page locks in one table before they are escalated */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 4096;
 
-    Permissions SHARED_LOCK = Permissions.READ_ONLY;
-    Permissions EXCLUSIVE_LOCK = Permissions.READ_WRITE;
+    /**
+     * How deadlocks are dealt with
+     */
+    public enum DeadlockPolicy {
+        /** Detect cycles in the waits-for graph and abort a victim */
+        DETECT,
+        /** An older requester wounds (aborts) younger blockers, a younger one waits */
+        WOUND_WAIT,
+        /** An older requester waits, a younger one dies (aborts) */
+        WAIT_DIE;
+
+        /**
+         * @return the policy named by the system property
+         * simpledb.DeadlockPolicy (e.g. -Dsimpledb.DeadlockPolicy=WAIT_DIE)
+         * or DETECT if it is not set
+         */
+        public static DeadlockPolicy getDefault() {
+            String name = System.getProperty("simpledb.DeadlockPolicy");
+            return name == null ? DETECT : valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * Which transaction on a waits-for cycle gets aborted
+     */
+    public enum VictimPolicy {
+        /** The transaction whose request closed the cycle */
+        REQUESTER,
+        /** The transaction that started last */
+        YOUNGEST,
+        /** The transaction holding the fewest locks */
+        FEWEST_LOCKS,
+        /** The transaction that has written the fewest log bytes */
+        LEAST_LOG;
+
+        /**
+         * @return the policy named by the system property
+         * simpledb.VictimPolicy (e.g. -Dsimpledb.VictimPolicy=YOUNGEST)
+         * or REQUESTER if it is not set
+         */
+        public static VictimPolicy getDefault() {
+            String name = System.getProperty("simpledb.VictimPolicy");
+            return name == null ? REQUESTER : valueOf(name.toUpperCase());
+        }
+    }
+
+    /**
+     * Lockable resource standing for a whole table
+     */
+    private static final class TableLockId {
+        final int tableId;
+
+        TableLockId(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableLockId && ((TableLockId) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId;
+        }
+
+        @Override
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * A lock request that could not be granted right away
+     */
+    private static class LockRequest {
+        final TransactionId tid;
+        // a PageId or a TableLockId
+        final Object resource;
+        final LockMode mode;
+        final Condition cond;
+        boolean granted;
+        // chosen as a deadlock victim while waiting
+        boolean aborted;
+
+        LockRequest(TransactionId tid, Object resource, LockMode mode, Condition cond) {
+            this.tid = tid;
+            this.resource = resource;
+            this.mode = mode;
+            this.cond = cond;
+        }
+    }
+
+    /**
+     * Holders and FIFO wait queue of one table or page
+     */
+    private static class ResourceLock {
+        final HashMap<TransactionId, LockMode> holders = new HashMap<>();
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+
+        boolean isFree() {
+            return holders.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    private final ReentrantLock latch;
+    /**
+     * key : PageId or TableLockId
+     * value : holders and waiters of the resource
+     */
+    private final HashMap<Object, ResourceLock> locks;
+    /**
+     * key : TransactionId
+     * value : the resources it holds a lock on
+     */
+    private final HashMap<TransactionId, Set<Object>> tidToLocks;
+    /**
+     * key : TransactionId
+     * value : number of page locks held per tableId, drives escalation
+     */
+    private final HashMap<TransactionId, HashMap<Integer, Integer>> tidToTablePages;
+    /**
+     * key : a blocked transaction
+     * value : the request it is blocked on
+     */
+    private final HashMap<TransactionId, LockRequest> waiting;
+    private final WaitsForGraph waitsFor;
+    private final DeadlockPolicy deadlockPolicy;
+    private volatile VictimPolicy victimPolicy;
+    /** Transactions wounded under WOUND_WAIT, they abort at their next request */
+    private final HashSet<TransactionId> wounded;
+    /** Maximum time to wait for a lock in milliseconds, 0 waits forever */
+    private volatile long timeoutMillis;
+    private volatile int escalationThreshold;
+
+    // Statistics, written under the latch
+    private volatile long deadlocks;
+    private volatile long aborts;
+    private volatile long detectionNanos;
+    private volatile long escalations;
 
     public LockManager() {
-        this.pageLockMap = new HashMap<>();
-        this.waitlist = new HashMap<>();
-        this.tidToPages = new HashMap<>();
-        this.pageToTids = new HashMap<>();
+        this(DeadlockPolicy.getDefault());
+    }
+
+    public LockManager(DeadlockPolicy deadlockPolicy) {
+        this(0, deadlockPolicy, VictimPolicy.getDefault());
+    }
+
+    /**
+     * @param timeoutMillis how long a request may wait before its
+     *                      transaction is aborted; 0 waits forever
+     * @param deadlockPolicy how deadlocks are detected or prevented
+     * @param victimPolicy which transaction to abort on a deadlock, only
+     *                     used by DeadlockPolicy.DETECT
+     */
+    public LockManager(long timeoutMillis, DeadlockPolicy deadlockPolicy, VictimPolicy victimPolicy) {
+        this.latch = new ReentrantLock();
+        this.locks = new HashMap<>();
+        this.tidToLocks = new HashMap<>();
+        this.tidToTablePages = new HashMap<>();
+        this.waiting = new HashMap<>();
+        this.waitsFor = new WaitsForGraph();
+        this.deadlockPolicy = deadlockPolicy;
+        this.victimPolicy = victimPolicy;
+        this.wounded = new HashSet<>();
+        this.timeoutMillis = timeoutMillis;
+        this.escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return deadlockPolicy;
+    }
+
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /** @return the number of deadlocks found so far */
+    public long getDeadlockCount() {
+        return deadlocks;
+    }
+
+    /** @return the number of transactions aborted to detect or prevent a deadlock */
+    public long getAbortCount() {
+        return aborts;
+    }
+
+    /** @return the total time spent detecting or preventing deadlocks, in nanoseconds */
+    public long getDetectionNanos() {
+        return detectionNanos;
+    }
+
+    /** @return the number of times page locks were escalated to a table lock */
+    public long getEscalationCount() {
+        return escalations;
+    }
+
+    /** Set how long a request may wait before its transaction is aborted; 0 waits forever */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeout() {
+        return timeoutMillis;
+    }
+
+    /** Set the number of page locks in one table a transaction may hold before they are escalated */
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * tid requires a perm-level-lock on page pid, blocking until it is
+     * granted, using the default timeout.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock, the
+     *         timeout expires or the thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        acquireLock(tid, pid, perm, timeoutMillis);
+    }
+
+    /**
+     * tid requires a perm-level-lock on page pid, blocking until it is
+     * granted or timeoutMillis have passed (0 waits forever). Takes the
+     * intention lock on the page's table first, and nothing more if a table
+     * lock of tid already covers the page.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock, the
+     *         timeout expires or the thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm, long timeoutMillis)
+            throws TransactionAbortedException {
+        acquirePageLock(tid, pid, LockMode.of(perm), timeoutMillis);
+    }
+
+    /**
+     * Lock page pid in the given mode on behalf of tid if the lock can be
+     * granted right away, without waiting in any queue. A transaction that
+     * only uses this never takes part in a deadlock.
+     *
+     * @return whether the page is locked
+     */
+    public boolean tryLockPage(TransactionId tid, PageId pid, LockMode mode) {
+        latch.lock();
+        try {
+            return tryLock(tid, new TableLockId(pid.getTableId()), mode.intention())
+                    && tryLock(tid, pid, mode);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    // Lock resource if that needs no wait. Must hold the latch.
+    private boolean tryLock(TransactionId tid, Object resource, LockMode mode) {
+        ResourceLock lock = locks.get(resource);
+        if (lock == null) {
+            lock = new ResourceLock();
+            locks.put(resource, lock);
+        }
+        LockMode held = lock.holders.get(tid);
+        if (held != null && held.covers(mode)) return true;
+        LockMode wanted = held == null ? mode : held.join(mode);
+        if ((held != null || lock.waiters.isEmpty()) && isCompatible(lock, tid, wanted)) {
+            grant(lock, tid, resource, wanted);
+            return true;
+        }
+        if (lock.isFree()) locks.remove(resource);
+        return false;
+    }
+
+    /**
+     * tid requires a lock on page pid in the given mode, S, X or, when it
+     * is going to lock tuples of the page, IS or IX. Blocks like
+     * {@link #acquireLock}.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock, the
+     *         timeout expires or the thread is interrupted
+     */
+    public void acquirePageLock(TransactionId tid, PageId pid, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        latch.lock();
+        try {
+            checkWounded(tid, pid);
+            lockPage(tid, pid, mode, timeoutMillis);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * tid requires a perm-level-lock on the tuple rid, taking IS / IX on its
+     * page and table first. Blocks like {@link #acquireLock}.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock, the
+     *         timeout expires or the thread is interrupted
+     */
+    public void acquireRecordLock(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        LockMode mode = LockMode.of(perm);
+        PageId pid = rid.getPageId();
+        latch.lock();
+        try {
+            checkWounded(tid, rid);
+            lockPage(tid, pid, mode.intention(), timeoutMillis);
+            // A page or table lock may already cover the tuple
+            LockMode pageMode = heldMode(tid, pid);
+            if (pageMode != null && pageMode.covers(mode)) return;
+            LockMode tableMode = heldMode(tid, new TableLockId(pid.getTableId()));
+            if (tableMode != null && tableMode.covers(mode)) return;
+            lock(tid, rid, mode, timeoutMillis);
+        } finally {
+            latch.unlock();
+        }
     }
 
     /**
-     * tid tries to require a perm-level-lock on page pid
-     * return true if the lock is successfully acquired; otherwise return false
+     * Lock page pid and the intention on its table. Must hold the latch.
      */
-    public synchronized boolean acquireLock(TransactionId tid, PageId pid, Permissions perm)
-            throws IOException, TransactionAbortedException {
-        // Add the request to waitlist
-        // Detect deadlock
-        if (!waitlist.containsKey(tid)) {
-            detectDeadlock(tid, pid, perm);
-            waitlist.put(tid, pid);
+    private void lockPage(TransactionId tid, PageId pid, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        TableLockId table = new TableLockId(pid.getTableId());
+        // S and SIX on the table hold every page S, X holds them X; the
+        // intention modes hold no page at all
+        LockMode tableMode = heldMode(tid, table);
+        LockMode implied = tableMode == LockMode.X ? LockMode.X
+                : tableMode == LockMode.S || tableMode == LockMode.SIX ? LockMode.S : null;
+        if (implied != null && implied.covers(mode)) return;
+
+        lock(tid, table, mode.intention(), timeoutMillis);
+        if (lock(tid, pid, mode, timeoutMillis)) {
+            int pages = tidToTablePages.computeIfAbsent(tid, k -> new HashMap<>())
+                    .merge(table.tableId, 1, Integer::sum);
+            if (pages > escalationThreshold) escalate(tid, table);
         }
+    }
+
+    /**
+     * tid requires a table lock covering every page of tableId: S for
+     * READ_ONLY, X for READ_WRITE. Blocks like {@link #acquireLock}.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock, the
+     *         timeout expires or the thread is interrupted
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException {
+        TableLockId table = new TableLockId(tableId);
+        latch.lock();
+        try {
+            checkWounded(tid, table);
+            lock(tid, table, LockMode.of(perm), timeoutMillis);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    private void checkWounded(TransactionId tid, Object resource) throws TransactionAbortedException {
+        if (wounded.contains(tid)) {
+            Debug.log("Wounded ... tid: " + tid.getId() + " on " + resource);
+            throw new TransactionAbortedException("Wounded by an older transaction");
+        }
+    }
+
+    /**
+     * Lock resource in (at least) mode, waiting in its queue if needed.
+     * Must hold the latch.
+     *
+     * @return true if tid did not hold any lock on resource before
+     */
+    private boolean lock(TransactionId tid, Object resource, LockMode mode, long timeoutMillis)
+            throws TransactionAbortedException {
+        ResourceLock lock = locks.computeIfAbsent(resource, k -> new ResourceLock());
+        LockMode held = lock.holders.get(tid);
+        // Already holds a lock that is strong enough
+        if (held != null && held.covers(mode)) return false;
+
+        LockMode wanted = held == null ? mode : held.join(mode);
+        boolean upgrade = held != null;
+        if ((upgrade || lock.waiters.isEmpty()) && isCompatible(lock, tid, wanted)) {
+            grant(lock, tid, resource, wanted);
+            return !upgrade;
+        }
+
+        LockRequest request = new LockRequest(tid, resource, wanted, latch.newCondition());
+        // Upgrades go first: the upgrader already blocks everyone queued
+        if (upgrade) lock.waiters.addFirst(request);
+        else lock.waiters.addLast(request);
+        waiting.put(tid, request);
+        try {
+            updateWaits(lock);
+            awaitGrant(request, timeoutMillis);
+        } finally {
+            if (!request.granted) cancel(request);
+        }
+        return !upgrade;
+    }
+
+    /**
+     * Replace the page and tuple locks tid holds in table by one table lock,
+     * if that lock can be granted right away
+     */
+    private void escalate(TransactionId tid, TableLockId table) {
+        ResourceLock lock = locks.get(table);
+        LockMode intention = lock.holders.get(tid);
+        LockMode wanted = intention == LockMode.IS ? LockMode.S : LockMode.X;
+        if (!lock.waiters.isEmpty() || !isCompatible(lock, tid, wanted)) return;
+        grant(lock, tid, table, wanted);
+        escalations++;
+
+        Iterator<Object> it = tidToLocks.get(tid).iterator();
+        while (it.hasNext()) {
+            Object resource = it.next();
+            PageId pid = resource instanceof RecordId ? ((RecordId) resource).getPageId()
+                    : resource instanceof PageId ? (PageId) resource : null;
+            if (pid != null && pid.getTableId() == table.tableId) {
+                it.remove();
+                release(tid, resource);
+            }
+        }
+        tidToTablePages.get(tid).remove(table.tableId);
+    }
 
-        // Check if acquire lock is available
-        if (!isLockAvailable(tid, pid, perm)) return false;
-        // Update lock manager
-        if (!tidToPages.containsKey(tid)) tidToPages.put(tid, new HashSet<>());
-        if (!pageToTids.containsKey(pid)) pageToTids.put(pid, new HashSet<>());
+    /**
+     * Block until request is granted. Must hold the latch.
+     */
+    private void awaitGrant(LockRequest request, long timeoutMillis) throws TransactionAbortedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (!request.granted) {
+                if (request.aborted) {
+                    Debug.log("Deadlock " + deadlockPolicy + " ... tid: " + request.tid.getId() + " on "
+                            + request.resource + " with mode: " + request.mode);
+                    throw new TransactionAbortedException("Deadlock...");
+                }
+                if (timeoutMillis <= 0) {
+                    request.cond.await();
+                } else {
+                    if (remaining <= 0)
+                        throw new TransactionAbortedException("Lock wait timeout on " + request.resource);
+                    remaining = request.cond.awaitNanos(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException("Interrupted while waiting for " + request.resource);
+        }
+    }
 
-        // Prevent SHARED overwrite EXCLUSIVE lock
-        if (!pageLockMap.containsKey(pid) || !pageLockMap.get(pid).equals(EXCLUSIVE_LOCK))
-            pageLockMap.put(pid, perm);
+    /**
+     * Drop a request that gave up waiting. Requests queued behind it may now
+     * be grantable.
+     */
+    private void cancel(LockRequest request) {
+        waiting.remove(request.tid);
+        waitsFor.removeWaiter(request.tid);
+        ResourceLock lock = locks.get(request.resource);
+        if (lock == null) return;
+        lock.waiters.remove(request);
+        grantWaiters(request.resource, lock);
+    }
 
-        // Set automatically ignore replicates
-        tidToPages.get(tid).add(pid);
-        pageToTids.get(pid).add(tid);
-        waitlist.remove(tid);
+    /**
+     * Given tid, mode and the state of a lock, return if the lock could be
+     * granted, ignoring the wait queue
+     */
+    private boolean isCompatible(ResourceLock lock, TransactionId tid, LockMode mode) {
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (holder.getKey().equals(tid)) continue;
+            if (!mode.isCompatible(holder.getValue())) return false;
+        }
         return true;
     }
 
+    private void grant(ResourceLock lock, TransactionId tid, Object resource, LockMode mode) {
+        // Never replace a lock by a weaker one
+        LockMode held = lock.holders.get(tid);
+        lock.holders.put(tid, held == null ? mode : held.join(mode));
+        tidToLocks.computeIfAbsent(tid, k -> new HashSet<>()).add(resource);
+    }
+
     /**
-     * Given tid, pid and perm, return if target lock is available to grant
+     * Hand the lock to queued requests in FIFO order, stopping at the first
+     * one that still conflicts, and wake up only those that were granted.
      */
-    public synchronized boolean isLockAvailable(TransactionId tid, PageId pid, Permissions perm) {
+    private void grantWaiters(Object resource, ResourceLock lock) {
+        Iterator<LockRequest> it = lock.waiters.iterator();
+        while (it.hasNext()) {
+            LockRequest request = it.next();
+            // Deadlock victims are on their way out
+            if (request.aborted) continue;
+            if (!isCompatible(lock, request.tid, request.mode)) break;
+            it.remove();
+            grant(lock, request.tid, resource, request.mode);
+            waiting.remove(request.tid);
+            waitsFor.removeWaiter(request.tid);
+            request.granted = true;
+            request.cond.signal();
+        }
+        if (lock.isFree()) locks.remove(resource);
+        else updateWaits(lock);
+    }
+
+    private LockMode heldMode(TransactionId tid, Object resource) {
+        ResourceLock lock = locks.get(resource);
+        return lock == null ? null : lock.holders.get(tid);
+    }
 
-        if (!pageLockMap.containsKey(pid)) return true;
+    /**
+     * Given tid, pid, return if the specific tid hold a lock on Page pid,
+     * either on the page itself or through a table lock that covers it
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            if (heldMode(tid, pid) != null) return true;
+            LockMode tableMode = heldMode(tid, new TableLockId(pid.getTableId()));
+            return tableMode != null && tableMode.covers(LockMode.S);
+        } finally {
+            latch.unlock();
+        }
+    }
 
-        // SHARED X EXCLUSIVE lock logic
-        Permissions curLockType = pageLockMap.get(pid);
-        int numOfLockHolders = 0;
-        if (pageToTids.containsKey(pid)) numOfLockHolders = pageToTids.get(pid).size();
+    /**
+     * @return the mode tid holds on page pid itself, or null
+     */
+    public LockMode getPageLockMode(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            return heldMode(tid, pid);
+        } finally {
+            latch.unlock();
+        }
+    }
 
-        // SHARED - SHARED : Grant the lock
-        // SHARED - EXCLUSIVE : Grant & Upgrade only when this tid is the only holder for this SHARED lock
-        if (curLockType.equals(SHARED_LOCK)) {
-            if (perm.equals(SHARED_LOCK)) return true;
-            else return pageToTids.get(pid).contains(tid) && numOfLockHolders < 2;
+    /**
+     * @return the mode tid holds on table tableId, or null
+     */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        latch.lock();
+        try {
+            return heldMode(tid, new TableLockId(tableId));
+        } finally {
+            latch.unlock();
         }
-        // EXCLUSIVE - SHARED: Grant only when this tid holds this EXCLUSIVE lock
-        // EXCLUSIVE - EXCLUSIVE: Grant only when this tid holds this EXCLUSIVE lock
-        else return pageToTids.get(pid).contains(tid);
     }
 
     /**
-     * Given tid, pid, return if the specific tid hold a lock on Page pid
+     * Return a snapshot of the pages tid holds a page lock on
      */
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        if (!pageLockMap.containsKey(pid) || !tidToPages.containsKey(tid))
-            return false;
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pids = new HashSet<>();
+            Set<Object> resources = tidToLocks.get(tid);
+            if (resources == null) return pids;
+            for (Object resource : resources) {
+                if (resource instanceof PageId) pids.add((PageId) resource);
+            }
+            return pids;
+        } finally {
+            latch.unlock();
+        }
+    }
 
-        return tidToPages.get(tid).contains(pid) && tidToPages.get(tid).contains(pid);
+    /**
+     * Return the tables tid holds an X lock on. tid may have modified pages
+     * of these tables without locking them one by one.
+     */
+    public Set<Integer> getExclusiveTables(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<Integer> tableIds = new HashSet<>();
+            Set<Object> resources = tidToLocks.get(tid);
+            if (resources == null) return tableIds;
+            for (Object resource : resources) {
+                if (resource instanceof TableLockId && heldMode(tid, resource) == LockMode.X)
+                    tableIds.add(((TableLockId) resource).tableId);
+            }
+            return tableIds;
+        } finally {
+            latch.unlock();
+        }
     }
 
     /**
@@ -89,64 +641,167 @@ public class LockManager {
      * There could be multi-thread releasing Transactions and releasing locks at the same time
      * Which means we might pass in a pid that has already been released
      */
-    public synchronized void releaseLock(TransactionId tid, PageId pid) {
-        if (!pageLockMap.containsKey(pid) || !tidToPages.containsKey(tid) ||
-                !tidToPages.get(tid).contains(pid)) {
-            return;
+    public void releaseLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            Set<Object> resources = tidToLocks.get(tid);
+            if (resources == null || !resources.remove(pid)) return;
+            if (resources.isEmpty()) tidToLocks.remove(tid);
+            HashMap<Integer, Integer> tablePages = tidToTablePages.get(tid);
+            if (tablePages != null) tablePages.computeIfPresent(pid.getTableId(), (k, n) -> n - 1);
+            release(tid, pid);
+        } finally {
+            latch.unlock();
         }
+    }
 
-        pageToTids.get(pid).remove(tid);
-        if (pageToTids.get(pid).isEmpty()) {
-            pageToTids.remove(pid);
-            pageLockMap.remove(pid);
+    private void release(TransactionId tid, Object resource) {
+        ResourceLock lock = locks.get(resource);
+        if (lock == null) return;
+        lock.holders.remove(tid);
+        grantWaiters(resource, lock);
+    }
+
+    /**
+     * Release the transaction with all its locks
+     */
+    public void releaseTransaction(TransactionId tid) {
+        releaseTransaction(tid, true);
+    }
+
+    /**
+     * Release the transaction with all its locks, after it committed or
+     * aborted. A wounded transaction counts as aborted by WOUND_WAIT only
+     * here, since it may still commit if it needs no more locks.
+     */
+    public void releaseTransaction(TransactionId tid, boolean commit) {
+        latch.lock();
+        try {
+            if (wounded.remove(tid) && !commit) aborts++;
+            tidToTablePages.remove(tid);
+            Set<Object> resources = tidToLocks.remove(tid);
+            if (resources == null) return;
+            for (Object resource : resources) release(tid, resource);
+        } finally {
+            latch.unlock();
         }
+    }
 
-        tidToPages.get(tid).remove(pid);
-        if (tidToPages.get(tid).isEmpty()) {
-            tidToPages.remove(tid);
+    /**
+     * @return the transactions request is waiting for: incompatible holders
+     *         and incompatible requests queued ahead of it
+     */
+    private List<TransactionId> blockersOf(LockRequest request) {
+        List<TransactionId> blockers = new ArrayList<>();
+        ResourceLock lock = locks.get(request.resource);
+        if (lock == null) return blockers;
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (holder.getKey().equals(request.tid)) continue;
+            if (!request.mode.isCompatible(holder.getValue())) blockers.add(holder.getKey());
         }
+        for (LockRequest ahead : lock.waiters) {
+            if (ahead == request) break;
+            if (ahead.aborted) continue;
+            if (!request.mode.isCompatible(ahead.mode)) blockers.add(ahead.tid);
+        }
+        return blockers;
     }
 
     /**
-     * Release the transaction with all its locks
+     * Apply the deadlock policy to the requests queued on a resource after
+     * the queue changed. Aborted waiters are flagged and woken up, they abort
+     * themselves in {@link #awaitGrant}.
      */
-    public synchronized void releaseTransaction(TransactionId tid) {
-        // Must initialize a new Set, To avoid : ConcurrentModificationException(tidToPages.values())
-        Set<PageId> releasePidSet = new HashSet<>();
-        if (tidToPages.containsKey(tid)) releasePidSet.addAll(tidToPages.get(tid));
-        for (PageId pid : releasePidSet) releaseLock(tid, pid);
-        waitlist.remove(tid);
-    }
-
-    // TODO: BFS -> pageToTids -> waitingList -> ...
-    public synchronized void detectDeadlock(TransactionId tid, PageId pid, Permissions type) throws
-            TransactionAbortedException, IOException {
-        // Page(pid) already been locked by tid with type Permission,
-        // No need for deadlock detect
-        if (tidToPages.containsKey(tid) && tidToPages.get(tid).contains(pid) &&
-                type.equals(pageLockMap.get(pid))) return;
-
-        // Detect circle in graph using BFS
-        Queue<PageId> bfs = new LinkedList<>();
-        bfs.offer(pid);
-        int bfsDepth = 0;
-
-        while (!bfs.isEmpty()) {
-            PageId curPid = bfs.poll();
-            if (!pageToTids.containsKey(curPid)) continue;
-            Set<TransactionId> nextTidSet = new HashSet<>(pageToTids.get(curPid));
-            for (TransactionId nextTid : nextTidSet) {
-                // Find a circle
-                if (nextTid.equals(tid)) {
-                    // Prevent self-loop-circle in a multi-shared scenario
-                    if (bfsDepth == 0) continue;
-                    // Deadlock
-                    System.out.println("Deadlock detected ... tid: " + tid + " pid: " + pid + " with perm: " + type);
-                    throw new TransactionAbortedException("Deadlock...");
-                }
-                if (waitlist.containsKey(nextTid)) bfs.offer(waitlist.get(nextTid));
+    private void updateWaits(ResourceLock lock) {
+        if (lock.waiters.isEmpty()) return;
+        long start = System.nanoTime();
+        for (LockRequest request : lock.waiters) {
+            if (request.aborted) continue;
+            switch (deadlockPolicy) {
+                case DETECT:
+                    detectCycles(request);
+                    break;
+                case WAIT_DIE:
+                    // Only wait for younger transactions
+                    for (TransactionId blocker : blockersOf(request)) {
+                        if (request.tid.getId() > blocker.getId()) {
+                            aborts++;
+                            abortWaiter(request);
+                            break;
+                        }
+                    }
+                    break;
+                case WOUND_WAIT:
+                    // Only wait for older transactions, wound the younger ones
+                    for (TransactionId blocker : blockersOf(request)) {
+                        if (request.tid.getId() < blocker.getId()) wound(blocker);
+                    }
+                    break;
             }
-            bfsDepth++;
         }
+        detectionNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Bring the waits-for edges of request up to date and check the new
+     * edges for cycles
+     */
+    private void detectCycles(LockRequest request) {
+        List<TransactionId> added = waitsFor.setEdges(request.tid, blockersOf(request));
+        for (TransactionId blocker : added) {
+            if (request.aborted) break;
+            List<TransactionId> cycle = waitsFor.findCycle(request.tid, blocker);
+            if (cycle != null) abortVictim(cycle);
+        }
+    }
+
+    /**
+     * Abort tid at its next lock request, or right away if it is waiting
+     */
+    private void wound(TransactionId tid) {
+        if (!wounded.add(tid)) return;
+        LockRequest request = waiting.get(tid);
+        if (request != null && !request.aborted) abortWaiter(request);
+    }
+
+    private void abortWaiter(LockRequest request) {
+        request.aborted = true;
+        waitsFor.removeWaiter(request.tid);
+        request.cond.signal();
+    }
+
+    /**
+     * Break a cycle by aborting one of its transactions. All of them are
+     * waiting, the first one is the one whose request closed the cycle.
+     */
+    private void abortVictim(List<TransactionId> cycle) {
+        deadlocks++;
+        aborts++;
+        TransactionId victim = cycle.get(0);
+        for (TransactionId tid : cycle) {
+            if (isBetterVictim(tid, victim)) victim = tid;
+        }
+        abortWaiter(waiting.get(victim));
+    }
+
+    private boolean isBetterVictim(TransactionId tid, TransactionId victim) {
+        switch (victimPolicy) {
+            case YOUNGEST:
+                return tid.getId() > victim.getId();
+            case FEWEST_LOCKS:
+                return numLocks(tid) < numLocks(victim)
+                        || numLocks(tid) == numLocks(victim) && tid.getId() > victim.getId();
+            case LEAST_LOG:
+                long logged = Database.getLogFile().getLoggedBytes(tid);
+                long victimLogged = Database.getLogFile().getLoggedBytes(victim);
+                return logged < victimLogged || logged == victimLogged && tid.getId() > victim.getId();
+            default:
+                return false;
+        }
+    }
+
+    private int numLocks(TransactionId tid) {
+        Set<Object> resources = tidToLocks.get(tid);
+        return resources == null ? 0 : resources.size();
     }
 }
@@ -0,0 +1,68 @@
+package simpledb;
+
+/**
+ * Lock modes of multi-granularity locking. Pages are locked in S or X mode,
+ * tables in any mode: before a transaction locks a page it takes the
+ * matching intention lock (IS for S, IX for X) on the page's table, while a
+ * table S or X lock covers every page of the table at once.
+ */
+public enum LockMode {
+    /** Intention to lock some pages shared */
+    IS,
+    /** Intention to lock some pages exclusive */
+    IX,
+    /** Shared */
+    S,
+    /** Shared, with the intention to lock some pages exclusive */
+    SIX,
+    /** Exclusive */
+    X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** @return the page lock mode of the given permission */
+    public static LockMode of(Permissions perm) {
+        return perm.equals(Permissions.READ_WRITE) ? X : S;
+    }
+
+    /** @return whether two transactions may hold this mode and other at once */
+    public boolean isCompatible(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return whether holding this mode grants everything other grants */
+    public boolean covers(LockMode other) {
+        switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+        }
+    }
+
+    /** @return the weakest mode that covers both this mode and other */
+    public LockMode join(LockMode other) {
+        if (covers(other)) return this;
+        if (other.covers(this)) return other;
+        // S and IX (with or without IS) are the only incomparable modes
+        return SIX;
+    }
+
+    /** @return the intention mode a table needs before a page is locked in this mode */
+    public LockMode intention() {
+        return this == S || this == IS ? IS : IX;
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The tail of the log in memory. Log records are serialized into a large
+ * direct buffer, which is written to the end of the log file in one chunk
+ * when it fills up or when the log is flushed, instead of with a write call
+ * for each field of each record.
+ * <p>
+ * The buffer writes at explicit positions of the file's channel, so the
+ * file pointer of the RandomAccessFile the channel belongs to stays free
+ * for reading the log. Not thread safe; the LogFile guards it.
+ *
+ * @see LogFile#force(long)
+ */
+class LogBuffer extends DataOutputStream {
+
+    /** Bytes of records buffered before they are written out */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * @param channel channel of the log file
+     * @param offset offset in the file of the first byte to append
+     * @param capacity size of the buffer in bytes
+     */
+    LogBuffer(FileChannel channel, long offset, int capacity) {
+        super(new ChunkStream(channel, offset, capacity));
+    }
+
+    private ChunkStream chunks() {
+        return (ChunkStream) out;
+    }
+
+    /** @return the offset in the file of the next byte appended */
+    long position() {
+        return chunks().position();
+    }
+
+    /** Write the buffered bytes to the file, without forcing it to disk */
+    @Override
+    public void flush() throws IOException {
+        chunks().flush();
+    }
+
+    /**
+     * Append at the given offset of a file from now on, after the log file
+     * was rewritten. The buffer must have been flushed.
+     */
+    void reset(FileChannel channel, long offset) {
+        chunks().reset(channel, offset);
+    }
+
+    private static class ChunkStream extends OutputStream {
+        private final ByteBuffer buffer;
+        private FileChannel channel;
+        // offset in the file of the first buffered byte
+        private long flushed;
+
+        ChunkStream(FileChannel channel, long offset, int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+            this.channel = channel;
+            this.flushed = offset;
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void reset(FileChannel channel, long offset) {
+            if (buffer.position() != 0) throw new IllegalStateException("Log buffer not flushed");
+            this.channel = channel;
+            this.flushed = offset;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ((Buffer) buffer).flip();
+            while (buffer.hasRemaining()) flushed += channel.write(buffer, flushed);
+            ((Buffer) buffer).clear();
+        }
+    }
+}
@@ -4,6 +4,9 @@ package simpledb;
 import javax.xml.crypto.Data;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.lang.reflect.*;
 
 /**
@@ -33,6 +36,24 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Log buffer: </u>
+<p>
+
+Records are appended to a LogBuffer in memory and reach the file in
+large chunks, when the buffer fills up or the log is forced or read.
+Every record has an LSN, its offset in the log plus lsnBase; the LSNs
+of later records are larger, also after the log was truncated. A page
+carries the LSN of the record of its latest change (Page.getLSN), and
+force(long) only forces the log if that record is not durable yet.
+
+<u> Group commit: </u>
+<p>
+
+logCommit() does not force the log itself. It appends the commit record,
+takes a ticket and waits until a flusher thread has forced the log past
+it. The flusher forces once for all the commits waiting, so concurrent
+transactions share an fsync. See {@link #setGroupCommit}.
 */
 
 /**
@@ -52,15 +73,22 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  Page and id classes
+are written as one byte tags, see PAGE_CLASSES and ID_CLASSES.
+
+<li>DELTA RECORDS are compact UPDATE records.  They consist of the page
+class, the page id and only the bytes the update changed, see
+PageDelta.  The first update of a page after a checkpoint is logged
+with full images, so that recovery can rebuild the page from the log
+if it was torn on disk; the later ones are logged as deltas.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
@@ -76,6 +104,10 @@ public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    // the records not written to raf yet; protected by this
+    private LogBuffer logBuffer;
+    // LSN of offset 0 of the log file; protected by this
+    private long lsnBase = 0;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -83,16 +115,49 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** Classes written as their tag, the index in the list plus one */
+    private static final List<Class<?>> PAGE_CLASSES =
+            Arrays.<Class<?>>asList(HeapPage.class, SlottedPage.class, PaxPage.class);
+    private static final List<Class<?>> ID_CLASSES = Arrays.<Class<?>>asList(HeapPageId.class);
+    /** Tag of other classes, followed by the class name */
+    private static final int UNTAGGED_CLASS = 0;
+
     long currentOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    // Group commit, guarded by groupLock: the LSN of the last commit
+    // record, and the LSN up to which the log is forced
+    private final Object groupLock = new Object();
+    private long lastCommitLsn = -1;
+    private long durableLsn = 0;
+    private int waitingCommits = 0;
+    private long forces = 0;
+    private long groupCommitDelayMicros = 0;
+    private int groupCommitBatchSize = 64;
+    private Thread flusher;
+    // The number of forces of the flusher that failed, and the last error
+    private long failedForces = 0;
+    private IOException forceFailure;
+    /** An idle flusher checks this often whether its log is still in use */
+    private static final long FLUSHER_IDLE_MILLIS = 1000;
+    /** Bounds of the pause of the flusher before it forces again after a failure */
+    private static final long FLUSHER_MIN_RETRY_MILLIS = 10;
+    private static final long FLUSHER_MAX_RETRY_MILLIS = 1000;
+
+    // Pages logged with full images since the last checkpoint; protected by this
+    private final HashSet<PageId> imagedPages = new HashSet<PageId>();
+
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // bytes of UPDATE records written by each live transaction, read
+    // without the log monitor (e.g. by the LockManager picking a victim)
+    final ConcurrentHashMap<Long,Long> tidToLoggedBytes = new ConcurrentHashMap<Long,Long>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -108,6 +173,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	    this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        logBuffer = new LogBuffer(raf.getChannel(), raf.length(), LogBuffer.DEFAULT_CAPACITY);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -128,17 +194,26 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
+            // the LSNs of the new records follow those of the old ones
+            lsnBase += raf.length();
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            logBuffer.reset(raf.getChannel(), raf.length());
+            currentOffset = logBuffer.position();
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the number of bytes of update records the live transaction
+        tid has written so far; does not block on the log */
+    public long getLoggedBytes(TransactionId tid) {
+        Long bytes = tidToLoggedBytes.get(tid.getId());
+        return bytes == null ? 0 : bytes;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -159,36 +234,153 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                logBuffer.writeInt(ABORT_RECORD);
+                logBuffer.writeLong(tid.getId());
+                logBuffer.writeLong(currentOffset);
+                currentOffset = logBuffer.position();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLoggedBytes.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk. Returns once a flusher thread has
+        forced the record, together with those of the transactions
+        committing at the same time.
 
         @param tid The committing transaction.
+        @throws IOException if the flusher could not force the record
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            lsn = lsnBase + currentOffset;
+            logBuffer.writeInt(COMMIT_RECORD);
+            logBuffer.writeLong(tid.getId());
+            logBuffer.writeLong(currentOffset);
+            currentOffset = logBuffer.position();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLoggedBytes.remove(tid.getId());
+            synchronized (groupLock) {
+                lastCommitLsn = lsn;
+            }
+        }
+        awaitForced(lsn);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Configure group commit. The flusher forces the log as soon as
+     * batchSize commits wait for it, and otherwise at most maxDelayMicros
+     * after the first of them. With no delay, the default, it forces right
+     * away, and the commits that arrive meanwhile form the next batch.
+     */
+    public void setGroupCommit(long maxDelayMicros, int batchSize) {
+        if (maxDelayMicros < 0 || batchSize < 1)
+            throw new IllegalArgumentException("Invalid group commit: " + maxDelayMicros + "us, " + batchSize);
+        synchronized (groupLock) {
+            groupCommitDelayMicros = maxDelayMicros;
+            groupCommitBatchSize = batchSize;
+        }
+    }
+
+    /** @return the number of times the log was forced to disk */
+    long getNumForces() {
+        synchronized (groupLock) {
+            return forces;
+        }
+    }
+
+    // Wait until the commit record with the given LSN has been forced, or
+    // throw the error of a force of the flusher that failed meanwhile
+    private void awaitForced(long lsn) throws IOException {
+        boolean interrupted = false;
+        synchronized (groupLock) {
+            if (flusher == null) {
+                flusher = new Thread(this::runFlusher, "LogFile flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            long failures = failedForces;
+            waitingCommits++;
+            groupLock.notifyAll();
+            try {
+                while (durableLsn <= lsn) {
+                    if (failedForces != failures)
+                        throw new IOException("Could not force the commit record to the log", forceFailure);
+                    try {
+                        groupLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waitingCommits--;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // The flusher: forces the log for every batch of waiting commits, until
+    // it has been idle while the database uses another log
+    private void runFlusher() {
+        long retryMillis = FLUSHER_MIN_RETRY_MILLIS;
+        while (true) {
+            synchronized (groupLock) {
+                try {
+                    while (durableLsn > lastCommitLsn) {
+                        if (waitingCommits == 0 && Database.getLogFile() != this) {
+                            flusher = null;
+                            return;
+                        }
+                        groupLock.wait(FLUSHER_IDLE_MILLIS);
+                    }
+                    // Let the batch fill up, for at most the delay
+                    long deadline = System.nanoTime() + groupCommitDelayMicros * 1000;
+                    while (waitingCommits < groupCommitBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) break;
+                        groupLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+                    }
+                } catch (InterruptedException e) {
+                    flusher = null;
+                    return;
+                }
+            }
+            try {
+                force();
+                retryMillis = FLUSHER_MIN_RETRY_MILLIS;
+            } catch (IOException e) {
+                Debug.log("Log force failed, retrying in %d ms: %s", retryMillis, e);
+                // The waiting commits fail, later ones wait for the next try
+                synchronized (groupLock) {
+                    failedForces++;
+                    forceFailure = e;
+                    groupLock.notifyAll();
+                }
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ie) {
+                    synchronized (groupLock) {
+                        flusher = null;
+                    }
+                    return;
+                }
+                retryMillis = Math.min(2 * retryMillis, FLUSHER_MAX_RETRY_MILLIS);
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.) Once the page
+        has been logged with full images since the last checkpoint, a
+        DELTA record with only the changed bytes is written instead.
+        The LSN of the record becomes the pageLSN of after.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -198,7 +390,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + logBuffer.position());
         preAppend();
         /* update record conists of
 
@@ -207,93 +399,188 @@ public class LogFile {
            before page data (see writePageData)
            after page data
            start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           or, for a delta record, of
+
+           record type
+           transaction id
+           page class, page id (see writePageId)
+           changed bytes (see PageDelta)
+           start offset
+        */
+        long start = logBuffer.position();
+        // a transaction that did not log BEGIN starts with its first update
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), start);
+        PageUpdate update;
+        if (imagedPages.add(after.getId())) {
+            update = new PageUpdate(tid.getId(), before, after);
+        } else {
+            update = new PageUpdate(tid.getId(), after.getClass(), after.getId(),
+                    PageDelta.diff(before.getPageData(), after.getPageData()));
+        }
+        logBuffer.writeInt(update.isFull() ? UPDATE_RECORD : DELTA_RECORD);
+        logBuffer.writeLong(tid.getId());
+        writeUpdate(logBuffer, update);
+        logBuffer.writeLong(currentOffset);
+        currentOffset = logBuffer.position();
+        after.setLSN(lsnBase + start);
+        tidToLoggedBytes.merge(tid.getId(), currentOffset - start, Long::sum);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
+    /**
+     * The page change of an UPDATE record, with full images, or of a
+     * DELTA record
+     */
+    static class PageUpdate {
+        final long tid;
+        final Class<?> pageClass;
+        final PageId pid;
+        final Page before;
+        final Page after;
+        final PageDelta delta;
+
+        PageUpdate(long tid, Page before, Page after) {
+            this.tid = tid;
+            this.pageClass = after.getClass();
+            this.pid = after.getId();
+            this.before = before;
+            this.after = after;
+            this.delta = null;
+        }
 
-        // page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+        PageUpdate(long tid, Class<?> pageClass, PageId pid, PageDelta delta) {
+            this.tid = tid;
+            this.pageClass = pageClass;
+            this.pid = pid;
+            this.before = null;
+            this.after = null;
+            this.delta = delta;
+        }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        /** @return whether the record holds full page images */
+        boolean isFull() {
+            return delta == null;
+        }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        /** @return the page data without the update; data may be null
+            for a full image, and is changed in place for a delta */
+        byte[] undo(byte[] data) {
+            if (isFull()) return before.getPageData().clone();
+            delta.undo(data);
+            return data;
+        }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+        /** @return the page data with the update, as for undo() */
+        byte[] redo(byte[] data) {
+            if (isFull()) return after.getPageData().clone();
+            delta.redo(data);
+            return data;
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    void writeUpdate(DataOutput out, PageUpdate update) throws IOException {
+        if (update.isFull()) {
+            writePageData(out, update.before);
+            writePageData(out, update.after);
+        } else {
+            writeClass(out, PAGE_CLASSES, update.pageClass);
+            writePageId(out, update.pid);
+            update.delta.write(out);
+        }
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    PageUpdate readUpdate(DataInput in, int type, long tid) throws IOException {
+        if (type == UPDATE_RECORD) {
+            Page before = readPageData(in);
+            Page after = readPageData(in);
+            return new PageUpdate(tid, before, after);
+        }
+        Class<?> pageClass = readClass(in, PAGE_CLASSES);
+        PageId pid = readPageId(in);
+        return new PageUpdate(tid, pageClass, pid, PageDelta.read(in));
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    void writePageData(DataOutput out, Page p) throws IOException{
+        // page data is:
+        // page class tag
+        // page id (see writePageId)
+        // page class bytes
+        // page class data
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        writeClass(out, PAGE_CLASSES, p.getClass());
+        writePageId(out, p.getId());
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    Page readPageData(DataInput in) throws IOException {
+        Class<?> pageClass = readClass(in, PAGE_CLASSES);
+        PageId pid = readPageId(in);
+        int pageSize = in.readInt();
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
+        return newPage(pageClass, pid, pageData);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        // id is:
+        // id class tag
+        // number of ints
+        // id class data
+        writeClass(out, ID_CLASSES, pid.getClass());
+        int pageInfo[] = pid.serialize();
+        out.writeByte(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            out.writeInt(pageInfo[i]);
+        }
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    PageId readPageId(DataInput in) throws IOException {
+        Class<?> idClass = readClass(in, ID_CLASSES);
+        int numIdArgs = in.readUnsignedByte();
+        Object idArgs[] = new Object[numIdArgs];
+        Class<?> idArgTypes[] = new Class<?>[numIdArgs];
+        for (int i = 0; i<numIdArgs;i++) {
+            idArgs[i] = in.readInt();
+            idArgTypes[i] = int.class;
+        }
+        try {
+            // pick the constructors by signature, the classes may declare others
+            return (PageId)idClass.getConstructor(idArgTypes).newInstance(idArgs);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot create page id of " + idClass.getName(), e);
+        }
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    /** @return a page of the given class, parsed from its data */
+    static Page newPage(Class<?> pageClass, PageId pid, byte[] pageData) throws IOException {
+        try {
+            Constructor<?> pageConst = pageClass.getConstructor(pid.getClass(), byte[].class);
+            return (Page)pageConst.newInstance(pid, pageData);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot create page of " + pageClass.getName(), e);
         }
-        return newPage;
+    }
 
+    private static void writeClass(DataOutput out, List<Class<?>> tagged, Class<?> c) throws IOException {
+        int tag = tagged.indexOf(c) + 1;
+        out.writeByte(tag);
+        if (tag == UNTAGGED_CLASS) out.writeUTF(c.getName());
+    }
+
+    private static Class<?> readClass(DataInput in, List<Class<?>> tagged) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag != UNTAGGED_CLASS) return tagged.get(tag - 1);
+        String className = in.readUTF();
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in log: " + className, e);
+        }
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -308,11 +595,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        logBuffer.writeInt(BEGIN_RECORD);
+        logBuffer.writeLong(tid.getId());
+        logBuffer.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = logBuffer.position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -329,28 +616,36 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                // pages written by now can be rebuilt from disk and deltas
+                imagedPages.clear();
+                // and none of them can be torn any more
+                Iterator<Integer> tableIds = Database.getCatalog().tableIdIterator();
+                while (tableIds.hasNext()) {
+                    DbFile file = Database.getCatalog().getDatabaseFile(tableIds.next());
+                    if (file instanceof HeapFile) ((HeapFile) file).settleChecksums();
+                }
+                startCpOffset = logBuffer.position();
+                logBuffer.writeInt(CHECKPOINT_RECORD);
+                logBuffer.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                logBuffer.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    logBuffer.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    logBuffer.writeLong(tidToFirstLogRecord.get(key));
                 }
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                logBuffer.writeLong(currentOffset);
+                endCpOffset = logBuffer.position();
+                logBuffer.flush();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                currentOffset = endCpOffset;
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -362,6 +657,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        logBuffer.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -411,11 +707,8 @@ public class LogFile {
 
                 switch (type) {
                 case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
+                case DELTA_RECORD:
+                    writeUpdate(logNew, readUpdate(raf, type, record_tid));
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
@@ -443,6 +736,11 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // the records keep their LSNs at their new offsets
+        logNew.getChannel().force(true);
+        logNew.close();
+        lsnBase += minLogRecord - LONG_SIZE;
+
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -450,7 +748,8 @@ public class LogFile {
         raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        logBuffer.reset(raf.getChannel(), raf.length());
+        currentOffset = logBuffer.position();
         //print();
     }
 
@@ -459,6 +758,9 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        The pages are written to disk and dropped from the BufferPool,
+        except for pages that other transactions have pending rows on
+        under row locking: those only lose the rows of tid.
 
         @param tid The transaction to rollback
     */
@@ -468,22 +770,39 @@ public class LogFile {
             synchronized(this) {
                 long tidNum = tid.getId();
                 preAppend();
+                logBuffer.flush();
                 // TODO: some code goes here
                 long offSetStart = raf.getFilePointer();
-                if (!tidToFirstLogRecord.containsKey(tidNum)) {
-                    raf.seek(offSetStart);
-                    return;
-                }
-                for (long offSet = currentOffset; offSet > tidToFirstLogRecord.get(tidNum);) {
+                Long firstRecord = tidToFirstLogRecord.get(tidNum);
+                if (firstRecord == null) return;
+                // Walking backwards, each update is undone on top of the later ones
+                // key : page, value : its data as restored so far
+                LinkedHashMap<PageId, byte[]> restored = new LinkedHashMap<>();
+                HashMap<PageId, Class<?>> pageClasses = new HashMap<>();
+                for (long offSet = currentOffset; offSet > firstRecord;) {
                     raf.seek(offSet - LONG_SIZE);
                     offSet = raf.readLong();
                     raf.seek(offSet);
 
-                    if (tidNum == raf.readLong() && raf.readLong() == UPDATE_RECORD)
-                        Database.getCatalog().getDatabaseFile(readPageData(raf)
-                                .getId()
-                                .getTableId())
-                                .writePage(readPageData(raf));
+                    int type = raf.readInt();
+                    if ((type == UPDATE_RECORD || type == DELTA_RECORD) && raf.readLong() == tidNum) {
+                        PageUpdate update = readUpdate(raf, type, tidNum);
+                        byte[] data = restored.get(update.pid);
+                        // a delta applies to the page as tid last wrote it
+                        if (data == null && !update.isFull())
+                            data = Database.getCatalog().getDatabaseFile(update.pid.getTableId())
+                                    .readPage(update.pid).getPageData();
+                        restored.put(update.pid, update.undo(data));
+                        pageClasses.put(update.pid, update.pageClass);
+                    }
+                }
+                for (Map.Entry<PageId, byte[]> e : restored.entrySet()) {
+                    // Pages shared with other writers only lose the rows of tid
+                    if (Database.getBufferPool().rollbackRows(tid, e.getKey())) continue;
+                    Page before = newPage(pageClasses.get(e.getKey()), e.getKey(), e.getValue());
+                    Database.getCatalog().getDatabaseFile(before.getId().getTableId())
+                            .writePage(before);
+                    Database.getBufferPool().discardPage(before.getId());
                 }
                 raf.seek(offSetStart);
             }
@@ -507,11 +826,28 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        Each logged page is rebuilt from its copy on disk, or from its
+        first full image in the log if a crash tore it. The updates of
+        uncommitted transactions are undone, then the committed
+        transactions are redone in the order of their last updates of the
+        page, not of their COMMIT records: each one is taken back to its
+        before image and then forward to its last after image only. That
+        is enough because the records of a transaction are cumulative: its
+        before image is kept from its first change of the page until it
+        completes, so every record, full or delta, spans all its changes
+        up to that point, and the last one holds all of them. Page locks
+        are held until commit, so the last updates are in the order the
+        transactions changed the page; with row locking a page shared by
+        several writers is logged once per transaction, at its commit,
+        together with the rows committed before. The page is written if
+        the result differs from disk: under NO-FORCE it may never have
+        been written.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                logBuffer.flush();
 
                 // TODO: some code goes here
                 System.out.println("Recover... " + this);
@@ -535,6 +871,9 @@ public class LogFile {
                 raf.seek(raf.length());
 
                 HashSet<Long> completedTransactions = new HashSet<>();
+                HashSet<Long> committedTransactions = new HashSet<>();
+                // key : page, value : the updates to undo or redo, last one first
+                HashMap<PageId, List<PageUpdate>> updates = new HashMap<>();
                 for (long offSet = raf.length(); offSet > LONG_SIZE; ) {
                     raf.seek(offSet - LONG_SIZE);
                     offSet = raf.readLong();
@@ -543,15 +882,16 @@ public class LogFile {
                     int type = raf.readInt();
                     long tid = raf.readLong();
 
-                    if (type == COMMIT_RECORD || type == ABORT_RECORD) completedTransactions.add(tid);
+                    if (type == COMMIT_RECORD || type == ABORT_RECORD) {
+                        completedTransactions.add(tid);
+                        if (type == COMMIT_RECORD) committedTransactions.add(tid);
+                    }
                     // Recover
-                    else if (type == UPDATE_RECORD) {
-                        if (!completedTransactions.contains(tid)) {
-                            Page pageBefore = readPageData(raf);
-                            Database.getCatalog().getDatabaseFile(pageBefore
-                                            .getId()
-                                            .getTableId())
-                                    .writePage(pageBefore);
+                    else if (type == UPDATE_RECORD || type == DELTA_RECORD) {
+                        // aborted transactions were rolled back before their ABORT
+                        if (!completedTransactions.contains(tid) || committedTransactions.contains(tid)) {
+                            PageUpdate update = readUpdate(raf, type, tid);
+                            updates.computeIfAbsent(update.pid, k -> new ArrayList<>()).add(update);
                         }
                     }
                     // Skip BEGIN & CHECKPOINT
@@ -560,17 +900,111 @@ public class LogFile {
                     raf.seek(raf.length());
                     currentOffset = raf.length();
                 }
+
+                for (Map.Entry<PageId, List<PageUpdate>> e : updates.entrySet())
+                    recoverPage(e.getKey(), e.getValue(), committedTransactions);
+                logBuffer.reset(raf.getChannel(), raf.length());
+                currentOffset = logBuffer.position();
             }
          }
     }
 
+    // Undo and redo the logged updates of a page, last one first
+    private void recoverPage(PageId pid, List<PageUpdate> updates, Set<Long> committed)
+            throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        byte[] onDisk = readIntact(file, pid);
+        byte[] data = onDisk == null ? null : onDisk.clone();
+        for (int i = updates.size() - 1; data == null && i >= 0; i--) {
+            if (updates.get(i).isFull()) data = updates.get(i).before.getPageData().clone();
+        }
+        if (data == null) throw new IOException("Page " + pid + " is torn and has no full image in the log");
+
+        // Undo
+        for (PageUpdate update : updates) {
+            if (!committed.contains(update.tid)) data = update.undo(data);
+        }
+        // Redo, in the order of the last updates of the transactions; the
+        // last update of each spans all its changes, see recover()
+        LinkedHashSet<Long> lastFirst = new LinkedHashSet<>();
+        for (PageUpdate update : updates) {
+            if (committed.contains(update.tid)) lastFirst.add(update.tid);
+        }
+        List<Long> redoOrder = new ArrayList<>(lastFirst);
+        Collections.reverse(redoOrder);
+        for (long tid : redoOrder) {
+            PageUpdate last = null;
+            for (PageUpdate update : updates) {
+                if (update.tid != tid) continue;
+                if (last == null) last = update;
+                data = update.undo(data);
+            }
+            data = last.redo(data);
+        }
+
+        if (onDisk == null || !Arrays.equals(onDisk, data))
+            file.writePage(newPage(updates.get(0).pageClass, pid, data));
+    }
+
+    // The page data on disk, or null if the page is torn or missing
+    private byte[] readIntact(DbFile file, PageId pid) {
+        try {
+            return file.readPage(pid).getPageData();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force the log to disk, including the commit records waiting for
+        the flusher. Only writing out the buffer holds the log's monitor;
+        other transactions keep appending records while the disk syncs. */
+    public void force() throws IOException {
+        long end;
+        FileChannel channel;
+        synchronized (this) {
+            end = lsnBase + logBuffer.position();
+            logBuffer.flush();
+            channel = raf.getChannel();
+        }
+        try {
+            channel.force(true);
+        } catch (ClosedChannelException e) {
+            // logTruncate replaced the file, and forced the records it kept
+            synchronized (this) {
+                if (raf.getChannel() == channel) throw e;
+            }
+        }
+        synchronized (groupLock) {
+            forces++;
+            if (end > durableLsn) {
+                durableLsn = end;
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    /** Force the log to disk up to the record with the given LSN, e.g.
+        the pageLSN of a page about to be written (WAL). Does nothing if
+        that record is durable already.
+        @param lsn The LSN of the record
+    */
+    public void force(long lsn) throws IOException {
+        synchronized (groupLock) {
+            if (lsn < durableLsn) return;
+        }
+        force();
+    }
+
+    /** @return the LSN up to which the log is on disk */
+    long getDurableLSN() {
+        synchronized (groupLock) {
+            return durableLsn;
+        }
     }
 
 }
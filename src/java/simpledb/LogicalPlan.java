@@ -1,6 +1,9 @@
 package simpledb;
 import java.util.Map;
 import java.util.Vector;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
@@ -258,6 +261,48 @@ public class LogicalPlan {
 
     }
 
+    /** Find the fields of the table scanned as alias that this plan reads: the
+     *   fields in the select list, the filters, the joins, the aggregate and the
+     *   GROUP BY and ORDER BY fields.
+     *  @return the indexes of these fields in the table, or null if the plan
+     *   reads all of them (e.g., SELECT *)
+     */
+    int[] scanFields(String alias) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(alias));
+        Set<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(alias + ".*"))
+                return null;
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+
+        Set<Integer> fields = new TreeSet<Integer>();
+        for (String name : names) {
+            if (name == null || !name.startsWith(alias + "."))
+                continue;
+            try {
+                fields.add(td.fieldNameToIndex(name.substring(alias.length() + 1)));
+            } catch (NoSuchElementException e) {
+                //unknown fields are reported when the plan is built
+            }
+        }
+        int[] result = new int[fields.size()];
+        int i = 0;
+        for (int f : fields)
+            result[i++] = f;
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -298,6 +343,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            // a PaxFile then decodes only the fields the plan reads
+            int[] fields = scanFields(table.alias);
+            if (fields != null)
+                ss.setFields(fields);
             
             subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -334,7 +383,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // a filter right over the scan goes into it, so pages that cannot match are skipped
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).pushPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
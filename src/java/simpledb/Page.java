@@ -46,6 +46,20 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Get the LSN of the last log record of a change to this page, or 0 if
+     * none was logged since the page was read. The log must be forced up
+     * to this LSN before the page is written.
+     *
+     * @return the pageLSN of this page
+     */
+    public long getLSN();
+
+    /**
+     * Set the LSN of the log record of the latest change to this page
+     */
+    public void setLSN(long lsn);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
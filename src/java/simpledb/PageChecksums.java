@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C checksums of the pages of a HeapFile, kept in the side file
+ * "&lt;file&gt;.crc" as two ints per page: the checksum the page was last
+ * written with, and the one before. The checksum of a page is checked each
+ * time the page is read, so a page that was only partly written when the
+ * system crashed (a torn page), or that was damaged on disk since, is
+ * noticed instead of being parsed.
+ * <p>
+ * The checksum is written before the page itself. If the system crashes
+ * in between, the page on disk is still the previous one, so both
+ * checksums are accepted until the next checkpoint, which has written all
+ * pages and settles them ({@link #settle}).
+ * <p>
+ * A checksum of 0 means that the page was never written through its
+ * HeapFile, e.g. an empty page appended to the file, and is not checked;
+ * a page whose CRC is 0 is recorded as 1 instead. The previous checksum of
+ * such a page is that of an empty page. CRC32C is computed by
+ * the JDK with the CPU's CRC instructions where there are any, so checking
+ * a page costs far less than reading it.
+ * <p>
+ * The HeapFile makes writing a page and its checksum atomic with respect
+ * to reading it.
+ */
+class PageChecksums {
+
+    static final int NONE = 0;
+    /** Bytes of the checksums of one page in the side file */
+    private static final int ENTRY_SIZE = 8;
+
+    private final File dataFile;
+    private final File file;
+    private final PageIO io;
+    // key : page number, value : its checksum; null until loaded
+    private int[] sums;
+    // key : page number, value : its checksum before, or the same once settled
+    private int[] previous;
+
+    PageChecksums(File dataFile) {
+        this.dataFile = dataFile;
+        this.file = sideFile(dataFile);
+        this.io = new PageIO(file);
+    }
+
+    /** @return the side file of a data file */
+    static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".crc");
+    }
+
+    /** Drop the side file of a data file that is being written from scratch */
+    static void discard(File dataFile) {
+        sideFile(dataFile).delete();
+    }
+
+    /** @return the checksum of the remaining bytes of page */
+    static int checksum(ByteBuffer page) {
+        CRC32C crc = new CRC32C();
+        crc.update(page.duplicate());
+        int sum = (int) crc.getValue();
+        return sum == NONE ? 1 : sum;
+    }
+
+    /** @return the checksum of page */
+    static int checksum(byte[] page) {
+        return checksum(ByteBuffer.wrap(page));
+    }
+
+    // Read the whole side file the first time a checksum is needed
+    private void load() throws IOException {
+        if (sums != null) return;
+        sums = new int[0];
+        previous = new int[0];
+        if (!file.exists()) return;
+        int count = (int) (io.size() / ENTRY_SIZE);
+        ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_SIZE);
+        if (!io.read(0, buf)) return;
+        ((Buffer) buf).flip();
+        sums = new int[count];
+        previous = new int[count];
+        for (int i = 0; i < count; i++) {
+            sums[i] = buf.getInt();
+            previous[i] = buf.getInt();
+        }
+    }
+
+    /** Record the checksum of page pageNo, which is about to be written */
+    void record(int pageNo, byte[] data) throws IOException {
+        record(pageNo, checksum(data), data.length);
+    }
+
+    private synchronized void record(int pageNo, int sum, int length) throws IOException {
+        load();
+        if (pageNo >= sums.length) {
+            int count = Math.max(pageNo + 1, sums.length * 2);
+            sums = Arrays.copyOf(sums, count);
+            previous = Arrays.copyOf(previous, count);
+        }
+        // A page never written with a checksum is still the empty page it was appended as
+        previous[pageNo] = sums[pageNo] == NONE ? checksum(new byte[length]) : sums[pageNo];
+        sums[pageNo] = sum;
+        write(pageNo);
+    }
+
+    private void write(int pageNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ENTRY_SIZE);
+        buf.putInt(sums[pageNo]);
+        buf.putInt(previous[pageNo]);
+        ((Buffer) buf).flip();
+        io.write((long) pageNo * ENTRY_SIZE, buf);
+    }
+
+    /**
+     * Stop accepting the previous checksums, once all pages have been
+     * written, e.g. at a checkpoint
+     */
+    synchronized void settle() throws IOException {
+        if (sums == null) return;
+        for (int i = 0; i < sums.length; i++) {
+            if (previous[i] == sums[i]) continue;
+            previous[i] = sums[i];
+            write(i);
+        }
+    }
+
+    /** @return whether page pageNo, whose bytes are data, has a checksum it was written with */
+    boolean matches(int pageNo, ByteBuffer data) throws IOException {
+        int sum;
+        int before;
+        synchronized (this) {
+            load();
+            if (pageNo >= sums.length) return true;
+            sum = sums[pageNo];
+            before = previous[pageNo];
+        }
+        if (sum == NONE) return true;
+        int actual = checksum(data);
+        return actual == sum || actual == before;
+    }
+
+    /**
+     * Check page pageNo, whose bytes are data
+     * @throws IOException if the page does not have the checksum it was
+     *         written with
+     */
+    void verify(int pageNo, ByteBuffer data) throws IOException {
+        if (!matches(pageNo, data))
+            throw new IOException("Checksum mismatch on page " + pageNo + " of " + dataFile
+                    + ": the page is torn or damaged");
+    }
+
+    void close() throws IOException {
+        io.close();
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The bytes an update changed on a page, as the body of a compact UPDATE
+ * record of the log: a list of byte ranges, each with its contents before
+ * and after the update. Inserting, deleting or updating a tuple changes a
+ * bit of the page header and the bytes of its slot, so the record holds
+ * two short ranges instead of two whole page images. Applying the before
+ * bytes to a page undoes the update, applying the after bytes redoes it;
+ * both can be applied again without harm.
+ *
+ * @see LogFile#logWrite
+ */
+class PageDelta {
+
+    /**
+     * Unchanged runs shorter than the header of a range are logged as part
+     * of the ranges around them
+     */
+    static final int MIN_GAP = 2 * LogFile.INT_SIZE;
+
+    // The changed ranges: their start in the page data, their bytes before and after
+    private final int[] offsets;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private PageDelta(int[] offsets, byte[][] before, byte[][] after) {
+        this.offsets = offsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    /** @return the ranges where the page data before and after an update differ */
+    static PageDelta diff(byte[] beforeData, byte[] afterData) {
+        if (beforeData.length != afterData.length)
+            throw new IllegalArgumentException("Page size changed: " + beforeData.length + " -> " + afterData.length);
+        List<int[]> ranges = new ArrayList<>();
+        int i = 0;
+        while (i < beforeData.length) {
+            if (beforeData[i] == afterData[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            // Extend the range over short unchanged runs
+            for (int j = end; j < beforeData.length && j < end + MIN_GAP; j++) {
+                if (beforeData[j] != afterData[j]) end = j + 1;
+            }
+            ranges.add(new int[] {start, end});
+            i = end;
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] before = new byte[ranges.size()][];
+        byte[][] after = new byte[ranges.size()][];
+        for (int r = 0; r < ranges.size(); r++) {
+            int start = ranges.get(r)[0];
+            int end = ranges.get(r)[1];
+            offsets[r] = start;
+            before[r] = Arrays.copyOfRange(beforeData, start, end);
+            after[r] = Arrays.copyOfRange(afterData, start, end);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+
+    /** @return the number of changed ranges */
+    int numRanges() {
+        return offsets.length;
+    }
+
+    /** Undo the update on page data that holds it, in place */
+    void undo(byte[] data) {
+        apply(before, data);
+    }
+
+    /** Redo the update on page data that lacks it, in place */
+    void redo(byte[] data) {
+        apply(after, data);
+    }
+
+    private void apply(byte[][] ranges, byte[] data) {
+        for (int r = 0; r < offsets.length; r++)
+            System.arraycopy(ranges[r], 0, data, offsets[r], ranges[r].length);
+    }
+
+    /*
+     * A delta is written as:
+     * number of ranges
+     * for each range: offset, length, before bytes, after bytes
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int r = 0; r < offsets.length; r++) {
+            out.writeInt(offsets[r]);
+            out.writeInt(before[r].length);
+            out.write(before[r]);
+            out.write(after[r]);
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        int numRanges = in.readInt();
+        int[] offsets = new int[numRanges];
+        byte[][] before = new byte[numRanges][];
+        byte[][] after = new byte[numRanges][];
+        for (int r = 0; r < numRanges; r++) {
+            offsets[r] = in.readInt();
+            int length = in.readInt();
+            before[r] = new byte[length];
+            in.readFully(before[r]);
+            after[r] = new byte[length];
+            in.readFully(after[r]);
+        }
+        return new PageDelta(offsets, before, after);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Page granular I/O on the file backing a HeapFile, also used for the
+ * small side files kept next to it.
+ * <p>
+ * One FileChannel is kept open for the life of the file, and a page is read
+ * or written with a single positional call at pageNo * pageSize. Reading
+ * page N therefore costs the same for every N, and concurrent readers do
+ * not share a file pointer.
+ * <p>
+ * A FileChannel is closed for everyone when a thread is interrupted in the
+ * middle of an I/O call, so the channel is reopened on the next call and
+ * calls of other threads that hit the closed channel are retried.
+ * <p>
+ * Pages can also be read from a read only mapping of the file, which saves
+ * the read call per page and leaves caching to the OS page cache.
+ * Writes still go through the channel; they share the page cache with the
+ * mapping, so mapped reads see them.
+ */
+class PageIO {
+
+    private final File file;
+    private volatile FileChannel channel;
+    private MappedByteBuffer map;
+
+    PageIO(File file) {
+        this.file = file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = this.channel;
+        if (ch != null && ch.isOpen()) return ch;
+        synchronized (this) {
+            if (this.channel == null || !this.channel.isOpen()) {
+                this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return this.channel;
+        }
+    }
+
+    /** @return the size of the file in bytes */
+    long size() throws IOException {
+        return channel().size();
+    }
+
+    /** @return the number of whole pages in the file */
+    int numPages() throws IOException {
+        return (int) (size() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Fill the remaining bytes of buf from the file, starting at offset pos
+     * @return false if the file ended first
+     */
+    boolean read(long pos, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, pos + buf.position() - start) < 0) return false;
+                }
+                return true;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by an interrupt in another thread, reopen and retry
+                ((Buffer) buf).position(start);
+            }
+        }
+    }
+
+    /** Write the remaining bytes of buf to the file, starting at offset pos */
+    void write(long pos, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        while (true) {
+            FileChannel ch = channel();
+            try {
+                while (buf.hasRemaining()) {
+                    ch.write(buf, pos + buf.position() - start);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by an interrupt in another thread, reopen and retry
+                ((Buffer) buf).position(start);
+            }
+        }
+    }
+
+    /**
+     * Read page pageNo
+     * @throws IndexOutOfBoundsException if the file has no such page
+     */
+    byte[] readPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pos = (long) pageSize * pageNo;
+        if (pageNo < 0 || pos + pageSize > size())
+            throw new IndexOutOfBoundsException("Page number exceed file size limit");
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        if (!read(pos, buf))
+            throw new IOException("Unexpected end of file reading page " + pageNo);
+        return buf.array();
+    }
+
+    /**
+     * Read page pageNo from the mapping of the file. The file is mapped again
+     * when the page lies past the end of the current mapping, e.g. after
+     * pages were appended.
+     * @return a buffer holding exactly the page, or null if the file is too
+     *         large to be mapped at once
+     * @throws IndexOutOfBoundsException if the file has no such page
+     */
+    ByteBuffer mapPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pos = (long) pageSize * pageNo;
+        MappedByteBuffer m;
+        synchronized (this) {
+            while (map == null || pos + pageSize > map.capacity()) {
+                FileChannel ch = channel();
+                long size = ch.size();
+                if (pageNo < 0 || pos + pageSize > size)
+                    throw new IndexOutOfBoundsException("Page number exceed file size limit");
+                if (size > Integer.MAX_VALUE) return null;
+                try {
+                    map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } catch (ClosedByInterruptException e) {
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt in another thread, reopen and retry
+                }
+            }
+            m = map;
+        }
+        if (pageNo < 0)
+            throw new IndexOutOfBoundsException("Page number exceed file size limit");
+        ByteBuffer page = m.duplicate();
+        ((Buffer) page).limit((int) pos + pageSize);
+        ((Buffer) page).position((int) pos);
+        return page.slice();
+    }
+
+    /** Write data as page pageNo, extending the file if needed */
+    void writePage(int pageNo, byte[] data) throws IOException {
+        write((long) BufferPool.getPageSize() * pageNo, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Append data as a new page at the end of the file
+     * @return the number of the new page
+     */
+    synchronized int appendPage(byte[] data) throws IOException {
+        return appendPages(data, 1);
+    }
+
+    /**
+     * Append count copies of data as new pages, extending the file with a
+     * single write
+     * @return the number of the first new page
+     */
+    synchronized int appendPages(byte[] data, int count) throws IOException {
+        int pageNo = numPages();
+        ByteBuffer buf = ByteBuffer.allocate(data.length * count);
+        for (int i = 0; i < count; i++) buf.put(data);
+        ((Buffer) buf).flip();
+        write((long) BufferPool.getPageSize() * pageNo, buf);
+        return pageNo;
+    }
+
+    /** Close the channel and drop the mapping; the next call opens it again */
+    synchronized void close() throws IOException {
+        this.map = null;
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+}
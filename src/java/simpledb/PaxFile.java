@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a DbFile that stores a collection of tuples in no particular
+ * order on PaxPages, which keep each field of their tuples in a minipage of
+ * its own. It suits analytic scans that read few fields of a wide table.
+ * <p>
+ * Pages are addressed with HeapPageIds and hold the same slots as those of
+ * a HeapFile of the table, so a HeapFile can be converted page by page.
+ *
+ * @see PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    final File backingFile;
+    final TupleDesc td;
+    private final PageIO io;
+    private final FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.backingFile = f;
+        this.td = td;
+        this.io = new PageIO(f);
+        this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Write the pages of the HeapFile heapFile, of a table with schema td,
+     * to paxFile in the layout of a PaxFile.
+     */
+    public static void convert(File heapFile, File paxFile, TupleDesc td) throws IOException {
+        FreeSpaceMap.discard(paxFile);
+        PageIO in = new PageIO(heapFile);
+        PageIO out = new PageIO(paxFile);
+        try {
+            int numPages = in.numPages();
+            for (int i = 0; i < numPages; i++) {
+                out.writePage(i, PaxPage.fromHeapPageData(in.readPage(i), td));
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the File backing this PaxFile on disk.
+     */
+    public File getFile() {
+        return this.backingFile;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this PaxFile, the hash of the
+     * absolute file name as for a HeapFile.
+     */
+    public int getId() {
+        return this.backingFile.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            PaxPage page = new PaxPage((HeapPageId) pid, io.readPage(pid.getPageNumber()));
+            noteFreeSpace(page);
+            return page;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageNo = page.getId().getPageNumber();
+        io.writePage(pageNo, page.getPageData());
+        PaxPage pp = (PaxPage) page;
+        freeSpace.persist(pageNo, pp.getNumEmptySlots(), pp.numSlots);
+    }
+
+    /** Record the number of free slots of a page in the free-space map */
+    void noteFreeSpace(PaxPage page) {
+        freeSpace.update(page.getId().getPageNumber(), page.getNumEmptySlots(), page.numSlots);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        io.close();
+        freeSpace.close();
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (backingFile.length() / BufferPool.getPageSize());
+    }
+
+    // Insert a tuple into the first page with a free slot, or into a new
+    // page at the end of the file
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        PaxPage chosenPage = null;
+        for (int i = freeSpace.nextFree(0, numPages()); i >= 0; i = freeSpace.nextFree(i + 1, numPages())) {
+            PaxPage curPage = (PaxPage) bp.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (curPage.getNumEmptySlots() > 0) {
+                chosenPage = curPage;
+                break;
+            }
+            noteFreeSpace(curPage);
+        }
+        if (chosenPage == null) {
+            HeapPageId pid = new HeapPageId(getId(), io.appendPage(PaxPage.createEmptyPageData()));
+            chosenPage = (PaxPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        }
+        chosenPage.insertTuple(t);
+        chosenPage.markDirty(true, tid);
+        noteFreeSpace(chosenPage);
+
+        return new ArrayList<>(List.of(chosenPage));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in a table");
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(
+                tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        noteFreeSpace(page);
+
+        return new ArrayList<>(List.of(page));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, new int[0]);
+    }
+
+    /**
+     * Returns an iterator over all the tuples of the file, decoding the
+     * given fields a page and a field at a time as each page is read. The
+     * other fields are decoded only if they are read.
+     *
+     * @see PaxPage#iterator(int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields) {
+        return new AbstractDbFileIterator() {
+            int pageNo;
+            Iterator<Tuple> curPageIter;
+
+            public void open() {
+                this.pageNo = 0;
+                this.curPageIter = Collections.emptyIterator();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                this.curPageIter = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (curPageIter == null) return null;
+                // Jump over empty pages
+                while (!curPageIter.hasNext()) {
+                    if (pageNo >= numPages()) return null;
+                    PaxPage page = (PaxPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(getId(), pageNo++), Permissions.READ_ONLY);
+                    curPageIter = page.iterator(fields);
+                }
+                return curPageIter.next();
+            }
+        };
+    }
+
+}
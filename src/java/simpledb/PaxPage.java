@@ -0,0 +1,355 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of PaxPage stores data for one page of a PaxFile. It holds
+ * as many tuples as a HeapPage of the same table, but lays them out column
+ * by column (PAX, "partition attributes across"): after the header bitmap
+ * of used slots comes one minipage per field, holding the values of that
+ * field for all slots back to back.
+ * <p>
+ * A scan that reads one or two fields of a wide table therefore only
+ * touches their minipages, and fields are decoded the first time they are
+ * read, so the other fields are never decoded at all.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    // the page as it was read, never changed; fields are decoded from it lazily
+    final byte[] data;
+    final byte[] header;
+    // key : field index, value : offset of its minipage in the page
+    final int[] columnOffsets;
+    private final Tuple[] tuples;
+    private boolean changed;
+    TransactionId lastDirtyTid;
+    // LSN of the last logged change, see Page.getLSN
+    private volatile long lsn;
+    // null while the before image is the current contents
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * A tuple of the page that decodes each field from its minipage the
+     * first time the field is read.
+     */
+    static class PaxTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+        private final PaxPage page;
+        private final int slot;
+        private boolean modified;
+
+        PaxTuple(PaxPage page, int slot) {
+            super(page.td);
+            this.page = page;
+            this.slot = slot;
+            this.modified = false;
+            setRecordId(new RecordId(page.pid, slot));
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = fields[i];
+            if (f == null) {
+                f = page.td.getFieldType(i).parse(page.data, page.cellOffset(slot, i));
+                fields[i] = f;
+            }
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            synchronized (page) {
+                page.captureBeforeImage();
+                modified = true;
+                super.setField(i, f);
+                page.changed = true;
+            }
+        }
+
+        /** @return whether this tuple still is slot of the bytes page was read with */
+        boolean isOriginal(PaxPage page, int slot) {
+            return !modified && this.page == page && this.slot == slot;
+        }
+    }
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. The page
+     * has the ceiling(no. tuple slots / 8) header bytes of a HeapPage,
+     * followed by the minipage of each field in turn; the minipage of field
+     * j holds no. tuple slots values of td.getFieldType(j).getLen() bytes.
+     * The page ends with padding.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = HeapPage.getNumTuples(td);
+
+        int pageSize = BufferPool.getPageSize();
+        this.data = data.length >= pageSize ? data : Arrays.copyOf(data, pageSize);
+        this.header = Arrays.copyOf(this.data, getHeaderSize(numSlots));
+        this.columnOffsets = new int[td.numFields()];
+        int offset = header.length;
+        for (int j = 0; j < columnOffsets.length; j++) {
+            columnOffsets[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        this.tuples = new Tuple[numSlots];
+        this.changed = false;
+        this.oldData = null;
+    }
+
+    private static int getHeaderSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    // Offset of field i of slot slot
+    private int cellOffset(int slot, int i) {
+        return columnOffsets[i] + slot * td.getFieldType(i).getLen();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // not modified since the last before image: that is the page itself
+            if (oldDataRef == null) oldDataRef = currentData();
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // the image was a valid page before, or was built by getPageData
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The current contents become the before image. As with HeapPage, they
+     * are only copied by the first modification that follows.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Called before every change of the page's contents, holding the page's monitor
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) oldData = currentData();
+        }
+    }
+
+    // The current contents, not to be modified by the caller
+    private synchronized byte[] currentData() {
+        return changed ? getPageData() : data;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Slots never move, so only the fields of the slots that changed since
+     * the page was read are written over a copy of the page.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] out = Arrays.copyOf(data, BufferPool.getPageSize());
+        if (!changed) return out;
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples[i];
+            if (!isSlotUsed(i)) {
+                for (int j = 0; j < columnOffsets.length; j++) {
+                    int offset = cellOffset(i, j);
+                    Arrays.fill(out, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
+                }
+            } else if (t != null && !(t instanceof PaxTuple && ((PaxTuple) t).isOriginal(this, i))) {
+                for (int j = 0; j < columnOffsets.length; j++) {
+                    ((Buffer) buf).position(cellOffset(i, j));
+                    t.getField(j).serialize(buf);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * PaxPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Lay out a page of a HeapFile of a table with schema td as a PaxPage.
+     * Both hold the same slots, so the tuples keep their slot numbers.
+     */
+    static byte[] fromHeapPageData(byte[] heapData, TupleDesc td) {
+        int numSlots = HeapPage.getNumTuples(td);
+        int headerSize = getHeaderSize(numSlots);
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(heapData, 0, out, 0, headerSize);
+        int tupleSize = td.getSize();
+        int column = headerSize;
+        int fieldOffset = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            for (int i = 0; i < numSlots; i++) {
+                System.arraycopy(heapData, headerSize + i * tupleSize + fieldOffset,
+                        out, column + i * len, len);
+            }
+            column += numSlots * len;
+            fieldOffset += len;
+        }
+        return out;
+    }
+
+    /**
+     * @return the tuple in slot i, built the first time it is used, or null
+     *   if the slot is empty
+     */
+    private Tuple tupleAt(int i) {
+        if (!isSlotUsed(i)) return null;
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = new PaxTuple(this, i);
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Delete the specified tuple from the page; the corresponding header bit
+     * should be updated to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid.getPageNumber());
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot))
+            throw new DbException("tuple has already been deleted");
+        if (!tupleAt(slot).equals(t))
+            throw new DbException("delete-tuple doesn't exist");
+
+        captureBeforeImage();
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        int slot = -1;
+        for (int i = 0; i < numSlots && slot < 0; i++) {
+            if (!isSlotUsed(i)) slot = i;
+        }
+        if (slot < 0 || !t.getTupleDesc().equals(td))
+            throw new DbException("Not able to insert tuple into page :" + pid.pageNo);
+
+        t.setRecordId(new RecordId(pid, slot));
+        captureBeforeImage();
+        tuples[slot] = t;
+        markSlotUsed(slot, true);
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value) header[i / 8] |= 1 << (i % 8);
+        else header[i / 8] &= ~(1 << (i % 8));
+        changed = true;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.lastDirtyTid = tid;
+        else this.lastDirtyTid = null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.lastDirtyTid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        int used = 0;
+        for (byte b : header) used += Integer.bitCount(b & 0xff);
+        return numSlots - used;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return i < numSlots && (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     * (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(new int[0]);
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, with the given fields
+     *   already decoded. Each field is decoded for all tuples in one pass
+     *   over its minipage; other fields are still decoded when first read.
+     */
+    public synchronized Iterator<Tuple> iterator(int[] fields) {
+        ArrayList<Tuple> result = new ArrayList<>();
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tupleAt(i);
+            if (t != null) result.add(t);
+        }
+        for (int field : fields) {
+            for (Tuple t : result) t.getField(field);
+        }
+        return Collections.unmodifiableList(result).iterator();
+    }
+
+}
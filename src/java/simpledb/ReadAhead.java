@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Read-ahead of one scan over the pages of a file. Once the scan has moved
+ * to SEQUENTIAL_RUN pages in a row, it keeps up to a window of the pages
+ * after its current one read ahead by the BufferPool in the background, so
+ * that reading them overlaps with processing the tuples of the current one.
+ * <p>
+ * The window adapts to the pressure on the pool. It starts at MIN_WINDOW
+ * pages and doubles each time it is topped up, up to a quarter of the pool.
+ * When the scan gets to a page that was read ahead and finds it no longer
+ * cached, the pool had to evict it again before its use: the window is too
+ * large for the pool at the moment and is halved.
+ *
+ * @see BufferPool#prefetchPage
+ */
+class ReadAhead {
+
+    /** Pages a scan moves to in a row before it counts as sequential */
+    static final int SEQUENTIAL_RUN = 2;
+    static final int MIN_WINDOW = 4;
+
+    private final BufferPool bp;
+    private final int tableId;
+    // Pages that are worth reading, e.g. not ruled out by a zone map
+    private final IntPredicate wanted;
+    private final int maxWindow;
+    private int window;
+    private int lastPageNo;
+    private int run;
+    // The pages after lastPageNo and below this one were read ahead
+    private int readUpTo;
+
+    ReadAhead(BufferPool bp, int tableId, IntPredicate wanted) {
+        this.bp = bp;
+        this.tableId = tableId;
+        this.wanted = wanted;
+        this.maxWindow = bp.getNumPages() / 4;
+        this.window = MIN_WINDOW;
+        this.lastPageNo = -1;
+        this.run = 0;
+        this.readUpTo = 0;
+    }
+
+    /** @return the number of pages currently read ahead of the scan */
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Note that the scan is about to fetch page pageNo of a file with
+     * numPages pages, and read ahead of it if the scan is sequential.
+     * Fetching a page again, or one the scan has passed, changes nothing.
+     */
+    void access(int pageNo, int numPages) {
+        if (maxWindow < MIN_WINDOW || pageNo <= lastPageNo) return;
+        if (pageNo < readUpTo) {
+            // Within the window: pages skipped on the way were not wanted
+            run++;
+            if (!bp.isCached(new HeapPageId(tableId, pageNo)))
+                window = Math.max(MIN_WINDOW, window / 2);
+        } else if (pageNo == lastPageNo + 1) {
+            run++;
+        } else {
+            run = 1;
+            window = MIN_WINDOW;
+        }
+        lastPageNo = pageNo;
+        readUpTo = Math.max(readUpTo, pageNo + 1);
+        if (run < SEQUENTIAL_RUN) return;
+
+        // Top the window up once less than half of it is left
+        if (readUpTo - pageNo > window / 2) return;
+        int end = Math.min(numPages, pageNo + 1 + window);
+        for (int i = readUpTo; i < end; i++) {
+            if (wanted.test(i)) bp.prefetchPage(new HeapPageId(tableId, i));
+        }
+        readUpTo = Math.max(readUpTo, end);
+        window = Math.min(maxWindow, window * 2);
+    }
+}
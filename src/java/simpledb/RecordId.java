@@ -69,16 +69,8 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // TODO:some code goes here
-        int sign = 1;
-        if (this.tupNo < 0) sign = -sign;
-        if (this.pid.hashCode() < 0) sign = -sign;
-
-        String tidString = Integer.toString(Math.abs(this.tupNo));
-        String pidString = Integer.toString(Math.abs(this.pid.hashCode()));
-        String concat = tidString + pidString;
-        System.out.println(tidString + "," + pidString);
-        System.out.println(concat);
-        return sign * Integer.parseInt(concat);
+        // Used as a lock key: must not overflow or print
+        return 31 * this.pid.hashCode() + this.tupNo;
     }
 
 }
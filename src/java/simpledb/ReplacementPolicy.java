@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which cached page the BufferPool gives up when it
+ * runs out of frames. A policy only tracks PageIds; the BufferPool owns the
+ * pages themselves and tells the policy when a page is cached, hit or dropped.
+ * <p>
+ * Every bookkeeping call is expected to run in O(1), since it happens on the
+ * hit path of {@link BufferPool#getPage}. Policies are not thread safe; the
+ * BufferPool calls them while holding its own lock.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Available replacement policies */
+    enum Kind {
+        LRU, CLOCK, TWO_Q;
+
+        /**
+         * Default policy, configurable with the system property
+         * simpledb.ReplacementPolicy (e.g. -Dsimpledb.ReplacementPolicy=CLOCK)
+         */
+        public static Kind getDefault() {
+            String kind = System.getProperty("simpledb.ReplacementPolicy");
+            if (kind == null || kind.isEmpty()) return LRU;
+            return Kind.valueOf(kind.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Callback used by {@link #evict} to ask the BufferPool whether a candidate
+     * page may be dropped, e.g. NO-STEAL forbids evicting dirty pages.
+     */
+    interface Evictable {
+        boolean canEvict(PageId pid);
+    }
+
+    /** Page pid has just been read into the buffer pool */
+    void recordInsert(PageId pid);
+
+    /** Page pid was found in the buffer pool */
+    void recordAccess(PageId pid);
+
+    /** Page pid has been dropped from the buffer pool without going through evict */
+    void remove(PageId pid);
+
+    /**
+     * Choose a victim among the tracked pages and stop tracking it.
+     *
+     * @param evictable filter for pages that are allowed to leave the pool
+     * @return the evicted PageId, or null if no tracked page may be evicted
+     */
+    PageId evict(Evictable evictable);
+
+    /** @return the number of pages currently tracked */
+    int size();
+
+    /**
+     * Create a replacement policy of the given kind
+     * @param kind policy to create
+     * @param capacity number of frames of the buffer pool using this policy
+     */
+    static ReplacementPolicy create(Kind kind, int capacity) {
+        switch (kind) {
+            case CLOCK:
+                return new ClockReplacementPolicy(capacity);
+            case TWO_Q:
+                return new TwoQueueReplacementPolicy(capacity);
+            case LRU:
+            default:
+                return new LRUReplacementPolicy();
+        }
+    }
+}
@@ -14,7 +14,12 @@ public class SeqScan implements OpIterator {
     TransactionId transId;
     String tableAlias;
     boolean isOpen = false;
+    // the fields the plan reads, null if not known
+    int[] fields = null;
+    // predicates pushed down into the scan, see pushPredicate
+    final List<Predicate> predicates = new ArrayList<>();
     DbFileIterator hfIter;
+    Tuple nextTuple;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -79,10 +84,40 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tell the scan which fields of the table the plan above it reads. A
+     * PaxFile then decodes these fields a page at a time, while the other
+     * fields are only decoded if they are read after all. LogicalPlan sets
+     * them from the fields its query refers to.
+     *
+     * @see LogicalPlan#scanFields
+     */
+    public void setFields(int... fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Only return the tuples that satisfy p as well. A HeapFile skips the
+     * pages whose zone map shows that none of their tuples can satisfy the
+     * pushed predicates on INT_TYPE fields, without reading them.
+     *
+     * @param p a predicate on the fields of the scanned table
+     */
+    public void pushPredicate(Predicate p) {
+        this.predicates.add(p);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // TODO:some code goes here
         this.isOpen = true;
-        this.hfIter = Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.transId);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        this.nextTuple = null;
+        if (!this.predicates.isEmpty() && file instanceof HeapFile)
+            this.hfIter = ((HeapFile) file).iterator(this.transId, this.predicates);
+        else if (this.fields != null && file instanceof PaxFile)
+            this.hfIter = ((PaxFile) file).iterator(this.transId, this.fields);
+        else
+            this.hfIter = file.iterator(this.transId);
         this.hfIter.open();
     }
 
@@ -112,23 +147,38 @@ public class SeqScan implements OpIterator {
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // TODO:some code goes here
         if (!isOpen) throw new DbException("Seq Scan not open yet");
-        return hfIter.hasNext();
+        while (nextTuple == null && hfIter.hasNext()) {
+            Tuple t = hfIter.next();
+            if (matches(t)) nextTuple = t;
+        }
+        return nextTuple != null;
+    }
+
+    private boolean matches(Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t)) return false;
+        }
+        return true;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // TODO:some code goes here
-        if (hasNext()) return hfIter.next();
-        else throw new NoSuchElementException();
+        if (!hasNext()) throw new NoSuchElementException();
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
     }
 
     public void close() {
         this.isOpen = false;
+        this.nextTuple = null;
         this.hfIter.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        this.nextTuple = null;
         this.hfIter.rewind();
     }
 }
@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedFile is a DbFile that stores a collection of tuples in no
+ * particular order on SlottedPages, which keep variable-length records.
+ * Tables with short strings take far fewer pages than as a HeapFile, and
+ * strings longer than Type.STRING_LEN are kept whole.
+ * <p>
+ * Pages are addressed with HeapPageIds and read and written like those of
+ * a HeapFile; a free-space map of the free bytes of each page steers
+ * inserts to a page with room for the record.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile implements DbFile {
+
+    final File backingFile;
+    final TupleDesc td;
+    private final PageIO io;
+    private final FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        this.backingFile = f;
+        this.td = td;
+        this.io = new PageIO(f);
+        this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+        return this.backingFile;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this SlottedFile, the hash of the
+     * absolute file name as for a HeapFile.
+     */
+    public int getId() {
+        return this.backingFile.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            SlottedPage page = new SlottedPage((HeapPageId) pid, io.readPage(pid.getPageNumber()));
+            noteFreeSpace(page);
+            return page;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pageNo = page.getId().getPageNumber();
+        io.writePage(pageNo, page.getPageData());
+        freeSpace.persist(pageNo, ((SlottedPage) page).getFreeSpace(), BufferPool.getPageSize());
+    }
+
+    /** Record the free bytes of a page in the free-space map */
+    void noteFreeSpace(SlottedPage page) {
+        freeSpace.update(page.getId().getPageNumber(), page.getFreeSpace(), BufferPool.getPageSize());
+    }
+
+    /**
+     * Close the open handles on the backing file. The file is opened again by
+     * the next read or write.
+     */
+    public void close() throws IOException {
+        io.close();
+        freeSpace.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+        return (int) (backingFile.length() / BufferPool.getPageSize());
+    }
+
+    // Insert a tuple into the first page with room for its record, or into
+    // a new page at the end of the file
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int needed = SlottedPage.spaceNeeded(t);
+        if (needed > SlottedPage.maxFreeSpace())
+            throw new DbException("tuple of " + SlottedPage.recordSize(t) + " bytes does not fit on a page");
+        BufferPool bp = Database.getBufferPool();
+        int pageSize = BufferPool.getPageSize();
+        SlottedPage chosenPage = null;
+        for (int i = freeSpace.nextWithRoom(0, numPages(), needed, pageSize); i >= 0;
+                i = freeSpace.nextWithRoom(i + 1, numPages(), needed, pageSize)) {
+            SlottedPage curPage = (SlottedPage) bp.getPage(
+                    tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (curPage.hasRoomFor(t)) {
+                chosenPage = curPage;
+                break;
+            }
+            noteFreeSpace(curPage);
+        }
+        if (chosenPage == null) {
+            HeapPageId pid = new HeapPageId(getId(), io.appendPage(SlottedPage.createEmptyPageData()));
+            chosenPage = (SlottedPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        }
+        chosenPage.insertTuple(t);
+        chosenPage.markDirty(true, tid);
+        noteFreeSpace(chosenPage);
+
+        return new ArrayList<>(List.of(chosenPage));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in a table");
+        SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+                tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        noteFreeSpace(page);
+
+        return new ArrayList<>(List.of(page));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new AbstractDbFileIterator() {
+            int pageNo;
+            Iterator<Tuple> curPageIter;
+
+            public void open() {
+                this.pageNo = 0;
+                this.curPageIter = Collections.emptyIterator();
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                this.curPageIter = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (curPageIter == null) return null;
+                // Jump over empty pages
+                while (!curPageIter.hasNext()) {
+                    if (pageNo >= numPages()) return null;
+                    SlottedPage page = (SlottedPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(getId(), pageNo++), Permissions.READ_ONLY);
+                    curPageIter = page.iterator();
+                }
+                return curPageIter.next();
+            }
+        };
+    }
+
+}
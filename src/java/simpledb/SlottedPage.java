@@ -0,0 +1,403 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedFile.
+ * Unlike a HeapPage, whose slots all take the fixed size of the TupleDesc,
+ * a SlottedPage stores variable-length records, so a string takes as many
+ * bytes as it has rather than Type.STRING_LEN, and is never truncated.
+ * <p>
+ * The page starts with a 2 byte count of directory entries, followed by the
+ * slot directory, one entry of a 2 byte record offset and a 2 byte record
+ * length per slot. An offset of 0 marks an empty slot. The records fill the
+ * page from its end towards the directory, so the free space is in the
+ * middle. Slot numbers, and so RecordIds, stay valid while other records
+ * move: getPageData writes the records packed together every time.
+ * <p>
+ * A record is the fields of the tuple in order: an INT_TYPE field as 4
+ * bytes, a STRING_TYPE field as a 2 byte length followed by the UTF-8 bytes
+ * of the string.
+ * <p>
+ * The tuples handed out by the page are decoded copies: to change a tuple,
+ * delete it and insert the new version.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page {
+
+    /** Size of the entry count at the start of the page */
+    static final int HEADER_SIZE = 2;
+    /** Size of a slot directory entry */
+    static final int SLOT_SIZE = 4;
+    /** Largest page size whose offsets fit into a directory entry */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page as it was read, never changed
+    final byte[] data;
+    private int numSlots;
+    /*
+     * key : slot number
+     * value : offset in data of the record the slot was read with, 0 if the
+     * slot was empty or has changed since
+     */
+    private int[] offsets;
+    // key : slot number, value : length of its record, 0 for an empty slot
+    private int[] lengths;
+    // key : slot number, value : its tuple, null if empty or not decoded yet
+    private Tuple[] tuples;
+    private int recordBytes;
+    private boolean changed;
+    TransactionId lastDirtyTid;
+    // LSN of the last logged change, see Page.getLSN
+    private volatile long lsn;
+    // null while the before image is the current contents
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.
+     * @throws IOException if the page size is too large for the format or
+     *         the slot directory is damaged
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IOException("Page size " + pageSize + " too large for slotted pages");
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data.length >= pageSize ? data : Arrays.copyOf(data, pageSize);
+
+        this.numSlots = readUnsignedShort(this.data, 0);
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > pageSize)
+            throw new IOException("Bad slot count " + numSlots + " on page " + id.getPageNumber());
+        this.offsets = new int[Math.max(numSlots, 8)];
+        this.lengths = new int[offsets.length];
+        this.tuples = new Tuple[offsets.length];
+        for (int i = 0; i < numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            int offset = readUnsignedShort(this.data, entry);
+            if (offset == 0) continue;
+            int length = readUnsignedShort(this.data, entry + 2);
+            if (offset + length > pageSize)
+                throw new IOException("Bad record in slot " + i + " on page " + id.getPageNumber());
+            offsets[i] = offset;
+            lengths[i] = length;
+            recordBytes += length;
+        }
+        this.changed = false;
+        this.oldData = null;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            // not modified since the last before image: that is the page itself
+            if (oldDataRef == null) oldDataRef = currentData();
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // the image was a valid page before, or was built by getPageData
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The current contents become the before image. As with HeapPage, they
+     * are only copied by the first modification that follows.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Called before every change of the page's contents
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null) oldData = currentData();
+        }
+    }
+
+    // The current contents, not to be modified by the caller
+    private synchronized byte[] currentData() {
+        return changed ? getPageData() : data;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records packed at the end of the page.
+     * <p>
+     * Passing the result to the SlottedPage constructor produces a page with
+     * the same tuples in the same slots.
+     */
+    public synchronized byte[] getPageData() {
+        int pageSize = BufferPool.getPageSize();
+        if (!changed) return Arrays.copyOf(data, pageSize);
+        byte[] out = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        buf.putShort((short) numSlots);
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            int length = lengths[i];
+            if (length == 0) {
+                buf.putShort((short) 0).putShort((short) 0);
+                continue;
+            }
+            end -= length;
+            if (offsets[i] != 0) {
+                // unchanged since the page was read, copy the bytes
+                System.arraycopy(data, offsets[i], out, end, length);
+            } else {
+                ByteBuffer record = ByteBuffer.wrap(out, end, length);
+                writeRecord(tuples[i], record);
+                if (record.hasRemaining())
+                    throw new IllegalStateException("tuple in slot " + i + " changed size");
+            }
+            buf.putShort((short) end).putShort((short) length);
+        }
+        return out;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage, that is a page with an empty slot directory.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of bytes the record of t takes on a page */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == Type.STRING_TYPE)
+                size += 2 + ((StringField) f).getValue().getBytes(StandardCharsets.UTF_8).length;
+            else
+                size += f.getType().getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the free space a page needs to take t: its record and, in
+     *         case no slot is free, a new directory entry
+     */
+    static int spaceNeeded(Tuple t) {
+        return recordSize(t) + SLOT_SIZE;
+    }
+
+    /** @return the largest free space an empty page has */
+    static int maxFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE;
+    }
+
+    private static void writeRecord(Tuple t, ByteBuffer buf) {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            Field f = t.getField(i);
+            if (f.getType() == Type.STRING_TYPE) {
+                byte[] s = ((StringField) f).getValue().getBytes(StandardCharsets.UTF_8);
+                buf.putShort((short) s.length);
+                buf.put(s);
+            } else {
+                f.serialize(buf);
+            }
+        }
+    }
+
+    // Decode the record the page was read with in slot i
+    private Tuple readRecord(int i) {
+        Tuple t = new Tuple(td);
+        int pos = offsets[i];
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                int len = readUnsignedShort(data, pos);
+                String s = new String(data, pos + 2, len, StandardCharsets.UTF_8);
+                // long strings keep all of their characters
+                t.setField(j, new StringField(s, Math.max(Type.STRING_LEN, s.length())));
+                pos += 2 + len;
+            } else {
+                t.setField(j, type.parse(data, pos));
+                pos += type.getLen();
+            }
+        }
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * @return the tuple in slot i, decoded the first time it is used, or
+     *   null if the slot is empty
+     */
+    private Tuple tupleAt(int i) {
+        if (i >= numSlots || lengths[i] == 0) return null;
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = readRecord(i);
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty and
+     * its space free.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid.getPageNumber());
+        int slot = rid.getTupleNumber();
+        Tuple cur = tupleAt(slot);
+        if (cur == null)
+            throw new DbException("tuple has already been deleted");
+        if (!cur.equals(t))
+            throw new DbException("delete-tuple doesn't exist");
+
+        captureBeforeImage();
+        recordBytes -= lengths[slot];
+        offsets[slot] = 0;
+        lengths[slot] = 0;
+        tuples[slot] = null;
+        changed = true;
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing an empty slot if there
+     * is one; the tuple should be updated to reflect that it is now stored
+     * on this page.
+     * @throws DbException if the page has no room for the record or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Not able to insert tuple into page :" + pid.pageNo);
+        int size = recordSize(t);
+        int slot = firstEmptySlot();
+        if (size + (slot < 0 ? SLOT_SIZE : 0) > getFreeSpace())
+            throw new DbException("Not able to insert tuple into page :" + pid.pageNo);
+
+        captureBeforeImage();
+        if (slot < 0) {
+            slot = numSlots++;
+            if (slot == offsets.length) {
+                offsets = Arrays.copyOf(offsets, slot * 2);
+                lengths = Arrays.copyOf(lengths, slot * 2);
+                tuples = Arrays.copyOf(tuples, slot * 2);
+            }
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        offsets[slot] = 0;
+        lengths[slot] = size;
+        tuples[slot] = t;
+        recordBytes += size;
+        changed = true;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] == 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether t can be inserted into this page
+     */
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int needed = recordSize(t) + (firstEmptySlot() < 0 ? SLOT_SIZE : 0);
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * Returns the number of free bytes between the slot directory and the
+     * records.
+     */
+    public synchronized int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - numSlots * SLOT_SIZE - recordBytes;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public synchronized int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (lengths[i] != 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return i < numSlots && lengths[i] != 0;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) this.lastDirtyTid = tid;
+        else this.lastDirtyTid = null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.lastDirtyTid;
+    }
+
+    public long getLSN() {
+        return lsn;
+    }
+
+    public void setLSN(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in slot order
+     * (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        ArrayList<Tuple> result = new ArrayList<>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tupleAt(i);
+            if (t != null) result.add(t);
+        }
+        return Collections.unmodifiableList(result).iterator();
+    }
+
+}
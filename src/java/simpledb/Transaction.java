@@ -48,17 +48,9 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
-            }
+            // Flush pages if needed, write the commit log record and
+            // release locks, in this order
+            Database.getBufferPool().transactionComplete(tid, !abort, true);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
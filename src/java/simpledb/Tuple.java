@@ -93,8 +93,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // TODO:some code goes here
         LinkedList<String> fieldList = new LinkedList<>();
-        for (Field f : fields) {
-            fieldList.add(f.toString());
+        for (int i = 0; i < fields.length; i++) {
+            fieldList.add(getField(i).toString());
         }
         return String.join(" ", fieldList);
     }
@@ -108,7 +108,7 @@ public class Tuple implements Serializable {
         if (!other.td.equals(this.td) || !other.recordId.equals(this.recordId)) return false;
         if (other.fields.length != this.fields.length) return false;
         for (int i = 0; i < fields.length; i++) {
-            if (!other.fields[i].equals(fields[i])) return false;
+            if (!other.getField(i).equals(getField(i))) return false;
         }
         return true;
     }
@@ -120,18 +120,17 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // TODO:some code goes here
-        final Field[] _fields = this.fields;
         return new Iterator<Field>() {
             int i = 0;
             @Override
             public boolean hasNext() {
-                return i < _fields.length;
+                return i < fields.length;
             }
 
             @Override
             public Field next() {
                 if (hasNext()) {
-                    Field nextField = _fields[i];
+                    Field nextField = getField(i);
                     i++;
                     return nextField;
                 }
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson &amp; Shasha, full version).
+ * <p>
+ * A page touched once lives in the FIFO queue A1in. If it is evicted from A1in
+ * its id is remembered in the ghost queue A1out; a page that is read again
+ * while its id is still in A1out is considered hot and goes to Am, which is
+ * managed as LRU. A single pass over a large table therefore only cycles
+ * through A1in and leaves the hot pages in Am alone.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    /** Share of the frames reserved for A1in */
+    private static final double IN_RATIO = 0.25;
+    /** Number of ghost entries kept in A1out, relative to the frame count */
+    private static final double OUT_RATIO = 0.5;
+
+    private final int maxIn;
+    private final int maxOut;
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashMap<PageId, Boolean> am;
+
+    public TwoQueueReplacementPolicy(int capacity) {
+        this.maxIn = Math.max(1, (int) (capacity * IN_RATIO));
+        this.maxOut = Math.max(1, (int) (capacity * OUT_RATIO));
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public void recordInsert(PageId pid) {
+        if (a1in.contains(pid) || am.containsKey(pid)) {
+            recordAccess(pid);
+            return;
+        }
+        if (a1out.remove(pid)) am.put(pid, Boolean.TRUE);
+        else a1in.add(pid);
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        // Pages in A1in stay where they are: correlated references don't count
+        if (a1in.contains(pid)) return;
+        if (am.get(pid) == null) recordInsert(pid);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        a1in.remove(pid);
+        am.remove(pid);
+    }
+
+    @Override
+    public PageId evict(Evictable evictable) {
+        PageId victim;
+        if (a1in.size() > maxIn) {
+            victim = evictFrom(a1in.iterator(), evictable);
+            if (victim == null) victim = evictFrom(am.keySet().iterator(), evictable);
+        } else {
+            victim = evictFrom(am.keySet().iterator(), evictable);
+            if (victim == null) victim = evictFrom(a1in.iterator(), evictable);
+        }
+        return victim;
+    }
+
+    private PageId evictFrom(Iterator<PageId> it, Evictable evictable) {
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (!evictable.canEvict(pid)) continue;
+            boolean fromIn = a1in.contains(pid);
+            it.remove();
+            if (fromIn) remember(pid);
+            return pid;
+        }
+        return null;
+    }
+
+    /** Put an id evicted from A1in on the ghost queue */
+    private void remember(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > maxOut) {
+            Iterator<PageId> it = a1out.iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public int size() {
+        return a1in.size() + am.size();
+    }
+}
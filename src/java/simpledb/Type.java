@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +54,22 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = readInt(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            int strLen = data.getInt(offset);
+            byte bs[] = new byte[strLen];
+            ByteBuffer src = data.duplicate();
+            ((Buffer) src).position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +88,24 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from data, starting at offset, in the format of
+   *   {@link Field#serialize}.
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from data, starting at the absolute index offset, in the format
+   *   of {@link Field#serialize}. The position of data is not changed.
+   */
+    public abstract Field parse(ByteBuffer data, int offset);
+
+    // big-endian, as written by DataOutputStream.writeInt
+    static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -104,6 +104,9 @@ public class Utility {
         throws IOException {
         File f = new File(path);
         // touch the file
+        FreeSpaceMap.discard(f);
+        ZoneMap.discard(f);
+        PageChecksums.discard(f);
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Waits-for graph of the LockManager. There is an edge T1 -> T2 while T1 is
+ * blocked on a lock request that conflicts with a lock T2 holds or a request
+ * T2 queued ahead of it.
+ * <p>
+ * The graph is kept up to date as requests block, are granted and locks are
+ * released, so a deadlock check only has to search from the edges that were
+ * just added: a new edge T1 -> T2 closes a cycle iff T2 already reaches T1.
+ * <p>
+ * Not thread safe, the LockManager guards it with its latch.
+ */
+class WaitsForGraph {
+
+    /**
+     * key : a waiting transaction
+     * value : the transactions it waits for
+     */
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor;
+    private int numEdges;
+
+    WaitsForGraph() {
+        this.waitsFor = new HashMap<>();
+        this.numEdges = 0;
+    }
+
+    /**
+     * Replace the outgoing edges of waiter
+     * @return the targets that were not waited for before
+     */
+    List<TransactionId> setEdges(TransactionId waiter, Collection<TransactionId> blockers) {
+        Set<TransactionId> old = waitsFor.get(waiter);
+        List<TransactionId> added = new ArrayList<>();
+        for (TransactionId blocker : blockers) {
+            if (old == null || !old.contains(blocker)) added.add(blocker);
+        }
+        if (old != null) numEdges -= old.size();
+        if (blockers.isEmpty()) {
+            waitsFor.remove(waiter);
+        } else {
+            Set<TransactionId> edges = new HashSet<>(blockers);
+            waitsFor.put(waiter, edges);
+            numEdges += edges.size();
+        }
+        return added;
+    }
+
+    /** Drop all outgoing edges of a transaction that no longer waits */
+    void removeWaiter(TransactionId waiter) {
+        Set<TransactionId> old = waitsFor.remove(waiter);
+        if (old != null) numEdges -= old.size();
+    }
+
+    /**
+     * Search for a cycle through the edge from -> to by a DFS from to.
+     * @return the transactions on the cycle starting with from, or null if
+     *         to does not reach from
+     */
+    List<TransactionId> findCycle(TransactionId from, TransactionId to) {
+        // key : visited transaction, value : the transaction we reached it from
+        HashMap<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(to, from);
+        stack.push(to);
+        while (!stack.isEmpty()) {
+            TransactionId cur = stack.pop();
+            if (cur.equals(from)) {
+                LinkedList<TransactionId> cycle = new LinkedList<>();
+                TransactionId node = parent.get(from);
+                while (!node.equals(from)) {
+                    cycle.addFirst(node);
+                    node = parent.get(node);
+                }
+                cycle.addFirst(from);
+                return cycle;
+            }
+            Set<TransactionId> next = waitsFor.get(cur);
+            if (next == null) continue;
+            for (TransactionId n : next) {
+                if (!parent.containsKey(n)) {
+                    parent.put(n, cur);
+                    stack.push(n);
+                }
+            }
+        }
+        return null;
+    }
+
+    int numWaiters() {
+        return waitsFor.size();
+    }
+
+    int numEdges() {
+        return numEdges;
+    }
+}
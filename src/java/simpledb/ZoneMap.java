@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Zone map of a HeapFile: the smallest and largest value of each INT_TYPE
+ * field on each page, so that a scan with predicates can skip the pages
+ * none of whose tuples can match without reading them.
+ * <p>
+ * Unlike the free-space map, a zone map must never be too narrow. Entries
+ * in memory only ever widen: by the tuples inserted into a page, and by
+ * the pages read and written. Deletes leave them alone, and a page only
+ * gets its exact bounds back when it is written. The copy in the side file
+ * "&lt;file&gt;.zm" holds the exact bounds of each page as it was written
+ * last; recovery rewrites the pages it repairs, and so their entries too.
+ * <p>
+ * An entry of the side file is a state byte, UNKNOWN, EMPTY for a page
+ * without tuples or KNOWN, followed by the minimum and maximum of each
+ * INT_TYPE field.
+ */
+class ZoneMap {
+
+    static final byte UNKNOWN = 0;
+    static final byte EMPTY = 1;
+    static final byte KNOWN = 2;
+
+    private final File file;
+    private final PageIO io;
+    // key : index among the INT_TYPE fields, value : field index
+    private final int[] intFields;
+    // key : field index, value : index among the INT_TYPE fields, -1 if none
+    private final int[] columnOf;
+    private final int entrySize;
+    private byte[] states;
+    // key : pageNo * intFields.length + column, value : bound
+    private int[] mins;
+    private int[] maxs;
+    private boolean loaded;
+
+    ZoneMap(File dataFile, TupleDesc td) {
+        this.file = sideFile(dataFile);
+        this.io = new PageIO(file);
+        this.columnOf = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            columnOf[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.intFields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (columnOf[i] >= 0) intFields[columnOf[i]] = i;
+        }
+        this.entrySize = 1 + 8 * n;
+        this.states = new byte[0];
+        this.mins = new int[0];
+        this.maxs = new int[0];
+        this.loaded = false;
+    }
+
+    /** @return the side file of a data file */
+    static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    /** Drop the side file of a data file that is being written from scratch */
+    static void discard(File dataFile) {
+        sideFile(dataFile).delete();
+    }
+
+    // Read the side file the first time the map is searched, widening the
+    // entries of pages that were seen since. A side file with more pages
+    // than the data file, or of another schema, is not used.
+    private void load(int numPages) throws IOException {
+        if (loaded) return;
+        loaded = true;
+        if (!file.exists()) return;
+        long size = io.size();
+        if (size == 0 || size % entrySize != 0 || size / entrySize > numPages) return;
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        if (!io.read(0, buf)) return;
+        ((Buffer) buf).flip();
+        int[] lo = new int[intFields.length];
+        int[] hi = new int[intFields.length];
+        for (int pageNo = 0; buf.hasRemaining(); pageNo++) {
+            byte state = buf.get();
+            for (int k = 0; k < intFields.length; k++) {
+                lo[k] = buf.getInt();
+                hi[k] = buf.getInt();
+            }
+            if (state != UNKNOWN) include(pageNo, state, lo, hi);
+        }
+    }
+
+    private void ensureCapacity(int pageNo) {
+        if (pageNo < states.length) return;
+        int pages = Math.max(pageNo + 1, states.length * 2);
+        states = Arrays.copyOf(states, pages);
+        mins = Arrays.copyOf(mins, pages * intFields.length);
+        maxs = Arrays.copyOf(maxs, pages * intFields.length);
+    }
+
+    // Widen the entry of page pageNo by state and bounds
+    private void include(int pageNo, byte state, int[] lo, int[] hi) {
+        ensureCapacity(pageNo);
+        if (state == EMPTY) {
+            if (states[pageNo] == UNKNOWN) states[pageNo] = EMPTY;
+            return;
+        }
+        int base = pageNo * intFields.length;
+        boolean wasKnown = states[pageNo] == KNOWN;
+        for (int k = 0; k < intFields.length; k++) {
+            mins[base + k] = wasKnown ? Math.min(mins[base + k], lo[k]) : lo[k];
+            maxs[base + k] = wasKnown ? Math.max(maxs[base + k], hi[k]) : hi[k];
+        }
+        states[pageNo] = KNOWN;
+    }
+
+    // The exact state and bounds of page, returned in lo and hi
+    private byte bounds(HeapPage page, int[] lo, int[] hi) {
+        Arrays.fill(lo, Integer.MAX_VALUE);
+        Arrays.fill(hi, Integer.MIN_VALUE);
+        byte state = EMPTY;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            state = KNOWN;
+            for (int k = 0; k < intFields.length; k++) {
+                int v = ((IntField) t.getField(intFields[k])).getValue();
+                lo[k] = Math.min(lo[k], v);
+                hi[k] = Math.max(hi[k], v);
+            }
+        }
+        return state;
+    }
+
+    /** Widen the entry of page pageNo by a tuple inserted into it */
+    synchronized void include(int pageNo, Tuple t) {
+        int[] values = new int[intFields.length];
+        for (int k = 0; k < intFields.length; k++) {
+            values[k] = ((IntField) t.getField(intFields[k])).getValue();
+        }
+        include(pageNo, KNOWN, values, values);
+    }
+
+    /** Take in a page read from disk, unless its entry is known already */
+    synchronized void read(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        if (pageNo < states.length && states[pageNo] != UNKNOWN) return;
+        int[] lo = new int[intFields.length];
+        int[] hi = new int[intFields.length];
+        include(pageNo, bounds(page, lo, hi), lo, hi);
+    }
+
+    /** Write the exact bounds of a page to the side file, as it is written */
+    synchronized void persist(HeapPage page) throws IOException {
+        int pageNo = page.getId().getPageNumber();
+        int[] lo = new int[intFields.length];
+        int[] hi = new int[intFields.length];
+        byte state = bounds(page, lo, hi);
+        ByteBuffer buf = ByteBuffer.allocate(entrySize);
+        buf.put(state);
+        for (int k = 0; k < intFields.length; k++) {
+            buf.putInt(lo[k]).putInt(hi[k]);
+        }
+        ((Buffer) buf).flip();
+        io.write((long) pageNo * entrySize, buf);
+        include(pageNo, state, lo, hi);
+    }
+
+    /**
+     * @return false if no tuple of page pageNo, below numPages, can satisfy
+     *         all of the predicates; true if one may
+     */
+    synchronized boolean mayMatch(int pageNo, int numPages, List<Predicate> predicates) throws IOException {
+        load(numPages);
+        if (pageNo >= states.length || states[pageNo] == UNKNOWN) return true;
+        if (states[pageNo] == EMPTY) return false;
+        int base = pageNo * intFields.length;
+        for (Predicate p : predicates) {
+            int column = columnOf[p.getField()];
+            if (column < 0) continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = mins[base + column];
+            int max = maxs[base + column];
+            boolean may;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                may = min <= v && v <= max;
+                break;
+            case NOT_EQUALS:
+                may = min != v || max != v;
+                break;
+            case GREATER_THAN:
+                may = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                may = max >= v;
+                break;
+            case LESS_THAN:
+                may = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                may = min <= v;
+                break;
+            default:
+                may = true;
+            }
+            if (!may) return false;
+        }
+        return true;
+    }
+
+    void close() throws IOException {
+        io.close();
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolReadTest extends TestUtil.CreateHeapFile {
+
+    private static final int PAGES = 8;
+
+    // HeapFile whose reads are slow, counting how many are in flight
+    class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            inFlight.decrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private SlowHeapFile slow;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * PAGES; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(PAGES, empty.numPages());
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        slow = new SlowHeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+    }
+
+    /** Fetch pages from several threads at once and report the first error */
+    private void fetchConcurrently(int[] pageNos) throws Exception {
+        final Exception[] errors = new Exception[pageNos.length];
+        Thread[] readers = new Thread[pageNos.length];
+        for (int i = 0; i < pageNos.length; i++) {
+            final int idx = i;
+            final PageId pid = new HeapPageId(slow.getId(), pageNos[i]);
+            readers[i] = new Thread(() -> {
+                try {
+                    Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    errors[idx] = e;
+                }
+            });
+            readers[i].start();
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].join();
+            assertNull(errors[i]);
+        }
+    }
+
+    /**
+     * Misses on different pages should read from disk in parallel
+     */
+    @Test public void missesOverlap() throws Exception {
+        int[] pageNos = new int[PAGES];
+        for (int i = 0; i < PAGES; i++) pageNos[i] = i;
+        fetchConcurrently(pageNos);
+
+        assertEquals(PAGES, slow.reads.get());
+        assertTrue(slow.maxInFlight.get() > 1);
+    }
+
+    /**
+     * Concurrent misses on the same page should read it only once
+     */
+    @Test public void sameMissReadsOnce() throws Exception {
+        fetchConcurrently(new int[] {3, 3, 3, 3, 3});
+        assertEquals(1, slow.reads.get());
+    }
+
+    /**
+     * A thread holding the lock of one partition should not hold up the
+     * pages of the other partitions
+     */
+    @Test public void otherPartitionServed() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(256, ReplacementPolicy.Kind.getDefault(), 4));
+        PageId held = new HeapPageId(slow.getId(), 0);
+        PageId other = null;
+        for (int i = 1; i < PAGES && other == null; i++) {
+            PageId pid = new HeapPageId(slow.getId(), i);
+            if (bp.partitionFor(pid) != bp.partitionFor(held)) other = pid;
+        }
+        assertNotNull(other);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (bp.partitionFor(held)) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // let go of the partition
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        final PageId pid = other;
+        Thread reader = new Thread(() -> {
+            try {
+                bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        try {
+            reader.start();
+            reader.join(5000);
+            assertFalse(reader.isAlive());
+            assertEquals(1, slow.reads.get());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
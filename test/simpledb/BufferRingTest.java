@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends TestUtil.CreateHeapFile {
+    private static final int POOL_PAGES = 32;
+    private static final int PAGES = 40;
+
+    private TransactionId tid;
+    private BufferPool bp;
+    private HeapFile hot;
+
+    /**
+     * Set up initial resources for each unit test: a file of PAGES full
+     * pages, larger than the pool, and a small hot table whose pages are
+     * cached.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId loader = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * PAGES; ++i) batch.add(Utility.getHeapTuple(new int[] {i, -i}));
+        Database.getBufferPool().insertTuples(loader, empty.getId(), batch.iterator());
+        Database.getBufferPool().transactionComplete(loader);
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        bp = Database.resetBufferPool(POOL_PAGES);
+        tid = new TransactionId();
+        for (int i = 0; i < 2; i++) bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int scan() throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Unit test for BufferPool.scanRing(): only files larger than the pool
+     * get a ring.
+     */
+    @Test public void scanRing() {
+        assertNull(bp.scanRing(POOL_PAGES));
+        BufferRing ring = bp.scanRing(PAGES);
+        assertNotNull(ring);
+        assertEquals(POOL_PAGES / 8, ring.size());
+    }
+
+    /**
+     * Unit test for a scan of a file larger than the pool: it recycles the
+     * frames of its ring, and the hot pages stay cached.
+     */
+    @Test public void hotPagesSurviveScan() throws Exception {
+        assertEquals(504 * PAGES, scan());
+        assertTrue(bp.isCached(new HeapPageId(hot.getId(), 0)));
+        assertTrue(bp.isCached(new HeapPageId(hot.getId(), 1)));
+        assertTrue(bp.getNumCachedPages() <= 2 + bp.scanRing(PAGES).size());
+    }
+
+    /**
+     * Unit test for a page that another request used: the scan does not
+     * drop it when it leaves the ring.
+     */
+    @Test public void sharedPagesStay() throws Exception {
+        HeapPageId shared = new HeapPageId(empty.getId(), 10);
+        bp.getPage(tid, shared, Permissions.READ_ONLY);
+        assertEquals(504 * PAGES, scan());
+        assertTrue(bp.isCached(shared));
+        assertFalse(bp.isCached(new HeapPageId(empty.getId(), 11)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
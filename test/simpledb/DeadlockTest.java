@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +214,109 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Unit test for LockManager.VictimPolicy.YOUNGEST.
+   * t2 waits for t1, then t1 closes the cycle by waiting for t2. The younger
+   * t2 is aborted although t1's request found the deadlock.
+   */
+  @Test public void testYoungestVictim() throws Exception {
+    LockManager lockManager = bp.getLockManager();
+    lockManager.setVictimPolicy(LockManager.VictimPolicy.YOUNGEST);
+
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+
+    // the grabber of t2 completes t2 once it has been aborted
+    assertTrue(lg2.getError() instanceof TransactionAbortedException);
+    assertNull(lg1.getError());
+    assertTrue(lg1.acquired());
+    assertEquals(1, lockManager.getDeadlockCount());
+    assertTrue(lockManager.getDetectionNanos() > 0);
+  }
+
+  /**
+   * Unit test for LockManager.DeadlockPolicy.WAIT_DIE.
+   * The older t1 waits for t2, the younger t2 dies instead of waiting for t1.
+   */
+  @Test public void testWaitDie() throws Exception {
+    bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES, LockManager.DeadlockPolicy.WAIT_DIE));
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+    assertNull(lg1.getError());
+
+    // the grabber of t2 completes t2 once it has died, which frees p1
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2.getError() instanceof TransactionAbortedException);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getLockManager().getAbortCount());
+  }
+
+  /**
+   * Unit test for LockManager.DeadlockPolicy.WOUND_WAIT.
+   * The younger t2 waits for t1, the older t1 wounds t2 instead of waiting.
+   */
+  @Test public void testWoundWait() throws Exception {
+    bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES, LockManager.DeadlockPolicy.WOUND_WAIT));
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg2.acquired());
+    assertNull(lg2.getError());
+
+    // t2 is waiting, so the wound aborts it right away
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg2.getError() instanceof TransactionAbortedException);
+    assertTrue(lg1.acquired());
+    assertEquals(1, bp.getLockManager().getAbortCount());
+  }
+
+  /**
+   * Unit test for LockManager.getAbortCount() under WOUND_WAIT: a wounded
+   * transaction that commits before it asks for another lock is not
+   * counted, one that aborts is.
+   */
+  @Test public void testWoundCountedOnAbort() throws Exception {
+    bp = Database.resetBufferPool(new BufferPool(BufferPool.DEFAULT_PAGES, LockManager.DeadlockPolicy.WOUND_WAIT));
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    // t2 is not waiting, so the wound only takes effect at its next request
+    LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(lg1.acquired());
+    bp.transactionComplete(tid2);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1.acquired());
+    assertEquals(0, bp.getLockManager().getAbortCount());
+
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid3, p2, Permissions.READ_WRITE);
+    LockGrabber lg1Again = startGrabber(tid1, p2, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    try {
+      bp.getPage(tid3, p0, Permissions.READ_ONLY);
+      fail("wounded transaction got a lock");
+    } catch (TransactionAbortedException e) {
+      bp.transactionComplete(tid3, false);
+    }
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1Again.acquired());
+    assertEquals(1, bp.getLockManager().getAbortCount());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int COMMITTERS = 4;
+
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        log = Database.getLogFile();
+    }
+
+    @After public void tearDown() throws Exception {
+        log.setGroupCommit(0, 64);
+    }
+
+    // Start a transaction in each of threads threads and commit them all at once
+    private void commitConcurrently(int threads) throws Exception {
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            transactions.add(t);
+        }
+        List<Thread> committers = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (Transaction t : transactions) {
+            Thread committer = new Thread(() -> {
+                try {
+                    t.commit();
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            committer.start();
+            committers.add(committer);
+        }
+        for (Thread committer : committers) {
+            committer.join(10000);
+            assertFalse(committer.isAlive());
+        }
+        assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * Unit test for commits that arrive together: a full batch is forced
+     * with a single fsync, long before the delay runs out.
+     */
+    @Test public void batchSharesForce() throws Exception {
+        log.setGroupCommit(60 * 1000 * 1000, COMMITTERS);
+        long forces = log.getNumForces();
+        long start = System.currentTimeMillis();
+        commitConcurrently(COMMITTERS);
+        assertEquals(1, log.getNumForces() - forces);
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    /**
+     * Unit test for a commit alone: it waits for no more than the delay,
+     * then its record is forced on its own.
+     */
+    @Test public void delayBoundsWait() throws Exception {
+        log.setGroupCommit(100 * 1000, 64);
+        long forces = log.getNumForces();
+        long start = System.nanoTime();
+        commitConcurrently(1);
+        assertTrue(System.nanoTime() - start >= 100 * 1000 * 1000);
+        assertEquals(1, log.getNumForces() - forces);
+    }
+
+    /**
+     * Unit test for many commits at once with a short delay: the log is
+     * forced far fewer times than there are commits, since records are
+     * appended while an earlier batch is being forced.
+     */
+    @Test public void manyCommittersShareForces() throws Exception {
+        log.setGroupCommit(1000, 64);
+        long forces = log.getNumForces();
+        commitConcurrently(8 * COMMITTERS);
+        assertTrue(log.getNumForces() - forces < 8 * COMMITTERS);
+    }
+
+    /**
+     * Unit test for a force of the flusher that fails: the waiting commit
+     * gets the error instead of blocking, and a later commit goes through
+     * once the flusher forces the log again.
+     */
+    @Test public void failedForceReachesCommitter() throws Exception {
+        File f = File.createTempFile("failing", ".log");
+        f.deleteOnExit();
+        AtomicInteger failures = new AtomicInteger(1);
+        LogFile failing = new LogFile(f) {
+            @Override public void force() throws IOException {
+                if (failures.getAndDecrement() > 0)
+                    throw new IOException("device gone");
+                super.force();
+            }
+        };
+        TransactionId tid = new TransactionId();
+        failing.logXactionBegin(tid);
+        try {
+            failing.logCommit(tid);
+            fail("expected the failed force to reach the committer");
+        } catch (IOException e) {
+            assertEquals("device gone", e.getCause().getMessage());
+        }
+        TransactionId next = new TransactionId();
+        failing.logXactionBegin(next);
+        failing.logCommit(next);
+        assertTrue(failing.getNumForces() >= 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.RandomAccessFile;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -77,6 +78,129 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() out of file order and past the end
+     */
+    @Test
+    public void readPageRandomAccess() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10,
+                null, tuples);
+        assertEquals(3, threePageFile.numPages());
+
+        HeapPage last = (HeapPage) threePageFile.readPage(new HeapPageId(threePageFile.getId(), 2));
+        assertEquals(504 - 10, last.getNumEmptySlots());
+        HeapPage first = (HeapPage) threePageFile.readPage(new HeapPageId(threePageFile.getId(), 0));
+        assertEquals(0, first.getNumEmptySlots());
+        assertEquals(tuples.get(0).get(0),
+                Integer.valueOf(((IntField) first.iterator().next().getField(0)).getValue()));
+
+        try {
+            threePageFile.readPage(new HeapPageId(threePageFile.getId(), 3));
+            fail("expected exception");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() from a memory mapping of the file
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 520, null, null);
+        HeapPageId pid0 = new HeapPageId(twoPageFile.getId(), 0);
+        HeapPageId pid1 = new HeapPageId(twoPageFile.getId(), 1);
+        byte[] data0 = twoPageFile.readPage(pid0).getPageData();
+        byte[] data1 = twoPageFile.readPage(pid1).getPageData();
+
+        twoPageFile.setMemoryMapped(true);
+        assertArrayEquals(data1, twoPageFile.readPage(pid1).getPageData());
+        assertArrayEquals(data0, twoPageFile.readPage(pid0).getPageData());
+
+        // a page appended after the file was mapped is read too
+        HeapPageId pid2 = new HeapPageId(twoPageFile.getId(), 2);
+        twoPageFile.writePage(new HeapPage(pid2, data0));
+        assertArrayEquals(data0, twoPageFile.readPage(pid2).getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() of a page damaged on disk since it
+     * was written
+     */
+    @Test
+    public void readPageChecksumMismatch() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.writePage(hf.readPage(pid));
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            raf.seek(BufferPool.getPageSize() - 1);
+            raf.write(0x7f);
+        }
+
+        try {
+            hf.readPage(pid);
+            fail("expected a checksum mismatch");
+        } catch (RuntimeException e) {
+        }
+        hf.setMemoryMapped(true);
+        try {
+            hf.readPage(pid);
+            fail("expected a checksum mismatch");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    // The page pid of hf and a version of it with its first tuple deleted
+    private HeapPage[] twoVersions(HeapPageId pid) throws Exception {
+        HeapPage first = (HeapPage) hf.readPage(pid);
+        HeapPage second = (HeapPage) hf.readPage(pid);
+        second.deleteTuple(second.iterator().next());
+        return new HeapPage[] {first, second};
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() while the page is being written: a
+     * reader sees the old or the new page, with a matching checksum
+     */
+    @Test
+    public void readPageDuringWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage[] versions = twoVersions(pid);
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 500; i++) hf.writePage(versions[i % 2]);
+            } catch (Exception e) {
+                errors.add(e);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            byte[] data = hf.readPage(pid).getPageData();
+            assertTrue(Arrays.equals(versions[0].getPageData(), data)
+                    || Arrays.equals(versions[1].getPageData(), data));
+        }
+        writer.join();
+        assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() after a crash between writing the
+     * checksum of a page and the page: the previous page is still accepted
+     */
+    @Test
+    public void readPageCrashBeforeWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage[] versions = twoVersions(pid);
+        hf.writePage(versions[0]);
+        hf.writePage(versions[1]);
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            raf.seek(0);
+            raf.write(versions[0].getPageData());
+        }
+
+        assertTrue(Arrays.equals(versions[0].getPageData(), hf.readPage(pid).getPageData()));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -88,6 +90,51 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.insertTuples()
+     */
+    @Test public void insertTuples() throws Exception {
+        ArrayList<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * 3 + 1; ++i) batch.add(Utility.getHeapTuple(i, 2));
+        ArrayList<Page> dirty = empty.insertTuples(tid, batch.iterator());
+        assertEquals(4, empty.numPages());
+        assertEquals(4, dirty.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, ((HeapPage) dirty.get(i)).getNumEmptySlots());
+        }
+
+        // the next batch fills up the last page before adding another one
+        batch.clear();
+        for (int i = 0; i < 504; ++i) batch.add(Utility.getHeapTuple(i, 2));
+        dirty = empty.insertTuples(tid, batch.iterator());
+        assertEquals(5, empty.numPages());
+        assertEquals(2, dirty.size());
+        assertEquals(0, ((HeapPage) dirty.get(0)).getNumEmptySlots());
+        assertEquals(503, ((HeapPage) dirty.get(1)).getNumEmptySlots());
+        assertEquals(new HeapPageId(empty.getId(), 4), batch.get(503).getRecordId().getPageId());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() with the free-space map saved by
+     * an earlier HeapFile on the same file: the insert goes straight to the
+     * page with room and leaves the full page alone.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 504 + 10, null, null);
+        for (int i = 0; i < 2; i++) {
+            twoPageFile.writePage(twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), i)));
+        }
+        twoPageFile.close();
+
+        HeapFile reopened = Utility.openHeapFile(2, twoPageFile.getFile());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        reopened.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        BufferPool bp = Database.getBufferPool();
+        assertFalse(bp.holdsLock(tid, new HeapPageId(reopened.getId(), 0)));
+        assertTrue(bp.holdsLock(tid, new HeapPageId(reopened.getId(), 1)));
+        assertEquals(2, reopened.numPages());
+    }
+
     /**
      * JUnit suite target
      */
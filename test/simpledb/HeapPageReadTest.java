@@ -6,6 +6,8 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -99,6 +101,55 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData(): fields decoded on demand are
+     * written back unchanged, and a changed field is written out.
+     */
+    @Test public void getPageDataAfterRead() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(EXAMPLE_VALUES[1][1], ((IntField) it.next().getField(1)).getValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        first.setField(1, new IntField(-1));
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple changed = copy.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) changed.getField(0)).getValue());
+        assertEquals(-1, ((IntField) changed.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for a HeapPage read from a slice of a direct buffer: tuples
+     * are decoded from the buffer itself, and its bytes are only copied by
+     * the first change of the page.
+     */
+    @Test public void readFromBufferView() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocateDirect(pageSize + 16);
+        ((Buffer) buf).position(16);
+        buf.put(EXAMPLE_DATA);
+        ((Buffer) buf).position(16);
+        HeapPage page = new HeapPage(pid, buf);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // not copied: a field not decoded yet is read from the buffer
+        int offset = 16 + (int) Math.ceil(504 / 8.0) + 8 + 4;
+        buf.putInt(offset, 7);
+        assertEquals(7, ((IntField) it.next().getField(1)).getValue());
+        buf.putInt(offset, EXAMPLE_VALUES[1][1]);
+
+        // the first change copies the page as the before image
+        first.setField(1, new IntField(-1));
+        for (int i = 16; i < buf.capacity(); i++)
+            buf.put(i, (byte) 0);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getBeforeImage().getPageData()));
+        assertEquals(-1, ((IntField) page.iterator().next().getField(1)).getValue());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
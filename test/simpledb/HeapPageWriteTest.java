@@ -1,9 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -88,6 +90,58 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
+    /**
+     * Unit test for HeapPage.getPageData() after inserts and deletes
+     */
+    @Test public void getPageDataAfterWrites() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(-7, 2));
+        page.insertTuple(Utility.getHeapTuple(-8, 2));
+        byte[] data = page.getPageData();
+        assertTrue(Arrays.equals(data, page.getPageData()));
+
+        HeapPage copy = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(-7, ((IntField) it.next().getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0], ((IntField) it.next().getField(0)).getValue());
+
+        // only the slots changed since the last call are written again
+        page.deleteTuple(lastTuple(page));
+        copy = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[19][0], ((IntField) lastTuple(copy).getField(0)).getValue());
+    }
+
+    private static Tuple lastTuple(HeapPage page) {
+        Tuple last = null;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) last = it.next();
+        return last;
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before image is taken by
+     * the first change after setBeforeImage(), clean pages hold none.
+     */
+    @Test public void beforeImageOnFirstChange() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertNull(page.oldData);
+        page.insertTuple(Utility.getHeapTuple(-7, 2));
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+        page.deleteTuple(page.iterator().next());
+        page.deleteTuple(page.iterator().next());
+        HeapPage before = page.getBeforeImage();
+        assertEquals(483, before.getNumEmptySlots());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0],
+                ((IntField) before.iterator().next().getField(0)).getValue());
+    }
+
     @Test(expected=DbException.class)
         public void deleteNonexistentTuple() throws Exception {
         HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +188,89 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * Waiters are granted in FIFO order: a reader queued behind a writer must
+   * not overtake it, and releasing the lock hands it to the writer only.
+   */
+  @Test public void fifoHandoff() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid1);
+    Thread.sleep(TIMEOUT);
+    assertTrue(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid2);
+    Thread.sleep(TIMEOUT);
+    assertTrue(reader.acquired());
+    assertNull(reader.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.setLockTimeout().
+   * A request that waits longer than the timeout aborts its transaction.
+   */
+  @Test public void lockWaitTimeout() throws Exception {
+    bp.setLockTimeout(TIMEOUT / 2);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.start();
+    t.join(TIMEOUT * 10);
+    assertFalse(t.acquired());
+    assertTrue(t.getError() instanceof TransactionAbortedException);
+
+    // the timed out request left the queue, so p0 is free once tid1 is done
+    bp.transactionComplete(tid1);
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+  }
+
+  /**
+   * Unit test for BufferPool.lockTable().
+   * A table S lock covers every page without page locks, lets other
+   * readers in (IS) and keeps writers (IX) out.
+   */
+  @Test public void tableLockCoversPages() throws Exception {
+    bp.lockTable(tid1, empty.getId(), Permissions.READ_ONLY);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p2));
+    assertTrue(bp.getLockManager().getLockedPages(tid1).isEmpty());
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for lock escalation.
+   * Reading more pages than the threshold trades the page locks for a
+   * table S lock.
+   */
+  @Test public void lockEscalation() throws Exception {
+    LockManager lockManager = bp.getLockManager();
+    lockManager.setEscalationThreshold(2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(LockMode.IS, lockManager.getTableLockMode(tid1, empty.getId()));
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+
+    assertEquals(LockMode.S, lockManager.getTableLockMode(tid1, empty.getId()));
+    assertTrue(lockManager.getLockedPages(tid1).isEmpty());
+    assertEquals(1, lockManager.getEscalationCount());
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+  }
+
   /**
    * JUnit suite target
    */
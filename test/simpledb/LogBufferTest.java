@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogBufferTest extends TestUtil.CreateHeapFile {
+    private File file;
+    private RandomAccessFile raf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("logbuffer", ".log");
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(-1);
+    }
+
+    @After public void tearDown() throws Exception {
+        raf.close();
+        file.delete();
+    }
+
+    /**
+     * Unit test for LogBuffer: records reach the file once the buffer is
+     * flushed, after what the file already holds.
+     */
+    @Test public void writesOnFlush() throws Exception {
+        LogBuffer buffer = new LogBuffer(raf.getChannel(), raf.length(), 1024);
+        buffer.writeInt(7);
+        buffer.writeLong(42);
+        assertEquals(8 + 12, buffer.position());
+        assertEquals(8, raf.length());
+
+        buffer.flush();
+        assertEquals(8 + 12, raf.length());
+        raf.seek(8);
+        assertEquals(7, raf.readInt());
+        assertEquals(42, raf.readLong());
+    }
+
+    /**
+     * Unit test for LogBuffer: a full buffer is written in one chunk.
+     */
+    @Test public void writesWhenFull() throws Exception {
+        LogBuffer buffer = new LogBuffer(raf.getChannel(), raf.length(), 16);
+        buffer.write(new byte[40]);
+        assertEquals(8 + 40, buffer.position());
+        assertEquals(8 + 32, raf.length());
+    }
+
+    /**
+     * Unit test for LogFile.force(long): logging an update sets the
+     * pageLSN, and the log is only forced while that record is not durable.
+     */
+    @Test public void forceUpToPageLSN() throws Exception {
+        LogFile log = Database.getLogFile();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        log.logWrite(tid, before, after);
+        assertTrue(after.getLSN() >= log.getDurableLSN());
+
+        long forces = log.getNumForces();
+        log.force(after.getLSN());
+        assertTrue(after.getLSN() < log.getDurableLSN());
+        log.force(after.getLSN());
+        assertEquals(1, log.getNumForces() - forces);
+
+        HeapPage later = new HeapPage(pid, HeapPage.createEmptyPageData());
+        log.logWrite(tid, after, later);
+        assertTrue(later.getLSN() > after.getLSN());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageDeltaTest extends TestUtil.CreateHeapFile {
+    private HeapPage before;
+    private HeapPage after;
+
+    /**
+     * Set up initial resources for each unit test: an empty page, and the
+     * same page with one tuple inserted.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(new int[] {7, 8});
+        after.insertTuple(t);
+    }
+
+    /**
+     * Unit test for PageDelta.diff() of a tuple insert: the header bit and
+     * the slot, in two short ranges.
+     */
+    @Test public void insertIsSmall() {
+        PageDelta delta = PageDelta.diff(before.getPageData(), after.getPageData());
+        assertEquals(2, delta.numRanges());
+    }
+
+    /**
+     * Unit test for PageDelta.undo() and redo(): they turn the page data
+     * into the before and after images, however often they are applied.
+     */
+    @Test public void undoRedo() {
+        PageDelta delta = PageDelta.diff(before.getPageData(), after.getPageData());
+        byte[] data = before.getPageData();
+        delta.redo(data);
+        delta.redo(data);
+        assertTrue(Arrays.equals(after.getPageData(), data));
+        delta.undo(data);
+        delta.undo(data);
+        assertTrue(Arrays.equals(before.getPageData(), data));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageDeltaTest.class);
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private PaxFile createPaxFile(HeapFile source) throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxFile.convert(source.getFile(), f, source.getTupleDesc());
+        PaxFile pf = new PaxFile(f, source.getTupleDesc());
+        Database.getCatalog().addTable(pf);
+        return pf;
+    }
+
+    /**
+     * Unit test for PaxFile.convert() and a scan of one field: the tuples
+     * come back in heap file order, and the fields that are not read are
+     * not decoded.
+     */
+    @Test public void scanOneField() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 1000, null, tuples);
+        PaxFile pf = createPaxFile(hf);
+        assertEquals(hf.numPages(), pf.numPages());
+
+        SeqScan scan = new SeqScan(tid, pf.getId());
+        scan.setFields(2);
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertNull(t.fields[0]);
+            assertEquals(new IntField(tuples.get(i).get(2)), t.fields[2]);
+            assertEquals(new IntField(tuples.get(i).get(3)), t.getField(3));
+            i++;
+        }
+        scan.close();
+        assertEquals(tuples.size(), i);
+    }
+
+    /**
+     * Unit test for LogicalPlan.physicalPlan(): each scan is told the
+     * fields that the query reads from its table.
+     */
+    @Test public void planPassesFields() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(4, 10, null, null, "f");
+        PaxFile pf = createPaxFile(hf);
+        String name = Database.getCatalog().getTableName(pf.getId());
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(pf.getId(), "p");
+        lp.addProjectField("p.f3", null);
+        lp.addFilter("p.f1", Predicate.Op.GREATER_THAN, "0");
+        lp.addOrderBy("p.f3", true);
+        HashMap<String, TableStats> stats = new HashMap<>();
+        stats.put(name, new TableStats(pf.getId(), 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+
+        OpIterator node = plan;
+        while (!(node instanceof SeqScan))
+            node = ((Operator) node).getChildren()[0];
+        assertArrayEquals(new int[] {1, 3}, ((SeqScan) node).fields);
+
+        lp = new LogicalPlan();
+        lp.addScan(pf.getId(), "p");
+        lp.addProjectField("*", null);
+        assertNull(lp.scanFields("p"));
+    }
+
+    /**
+     * Unit test for PaxFile.insertTuple() and deleteTuple(), read back from
+     * disk.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        PaxFile pf = createPaxFile(hf);
+        int slots = HeapPage.getNumTuples(pf.getTupleDesc());
+        ArrayList<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < slots + 1; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] {i, -i});
+            pf.insertTuple(tid, t);
+            inserted.add(t);
+        }
+        assertEquals(2, pf.numPages());
+        pf.deleteTuple(tid, inserted.get(1));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        PaxPage page = (PaxPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+        assertEquals(1, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(1));
+        Tuple t = page.iterator().next();
+        assertEquals(inserted.get(0), t);
+        assertEquals(new IntField(0), t.getField(1));
+
+        // the freed slot is used again
+        tid = new TransactionId();
+        Tuple again = Utility.getHeapTuple(new int[] {7, 7});
+        pf.insertTuple(tid, again);
+        assertEquals(inserted.get(1).getRecordId(), again.getRecordId());
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema() with the storage of a table given
+     * after its fields.
+     */
+    @Test public void loadSchemaStorage() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        try (FileWriter w = new FileWriter(catalog)) {
+            w.write("heaptable (a int, b int)\n");
+            w.write("paxtable (a int, b int) pax\n");
+            w.write("slottedtable (a int, b string) slotted\n");
+        }
+        Catalog c = Database.getCatalog();
+        c.loadSchema(catalog.getPath());
+        assertTrue(c.getDatabaseFile(c.getTableId("heaptable")) instanceof HeapFile);
+        assertTrue(c.getDatabaseFile(c.getTableId("paxtable")) instanceof PaxFile);
+        assertTrue(c.getDatabaseFile(c.getTableId("slottedtable")) instanceof SlottedFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends TestUtil.CreateHeapFile {
+    private static final int PAGES = 20;
+
+    private TransactionId tid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test: a file of PAGES full
+     * pages, none of them cached.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId loader = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * PAGES; ++i) batch.add(Utility.getHeapTuple(new int[] {i, -i}));
+        Database.getBufferPool().insertTuples(loader, empty.getId(), batch.iterator());
+        Database.getBufferPool().transactionComplete(loader);
+        bp = Database.resetBufferPool(64);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(empty.getId(), pageNo);
+    }
+
+    // Wait for a page read in the background
+    private void awaitCached(int pageNo) throws InterruptedException {
+        for (int i = 0; i < 500 && !bp.isCached(pid(pageNo)); i++) Thread.sleep(10);
+        assertTrue(bp.isCached(pid(pageNo)));
+    }
+
+    /**
+     * Unit test for a scan with read-ahead: once it moves to its second
+     * page, the next pages are read without being locked.
+     */
+    @Test public void scanReadsAhead() throws Exception {
+        bp.setReadAhead(true);
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        for (int i = 0; i < 505; i++) it.next();
+        assertTrue(bp.holdsLock(tid, pid(1)));
+
+        awaitCached(5);
+        assertFalse(bp.holdsLock(tid, pid(5)));
+        assertFalse(bp.isCached(pid(PAGES - 1)));
+
+        // the rest of the scan reads the pages that were read ahead
+        int count = 505;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * PAGES, count);
+    }
+
+    /**
+     * Unit test for the window: it grows as the scan moves on, shrinks when
+     * a page read ahead was evicted before its use, and starts again when
+     * the scan jumps.
+     */
+    @Test public void windowAdapts() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, empty.getId(), i -> true);
+        ra.access(0, PAGES);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.access(1, PAGES);
+        assertEquals(2 * ReadAhead.MIN_WINDOW, ra.getWindow());
+        ra.access(2, PAGES);
+        assertEquals(4 * ReadAhead.MIN_WINDOW, ra.getWindow());
+
+        awaitCached(3);
+        bp.discardPage(pid(3));
+        ra.access(3, PAGES);
+        assertEquals(2 * ReadAhead.MIN_WINDOW, ra.getWindow());
+
+        ra.access(PAGES - 2, PAGES);
+        assertEquals(ReadAhead.MIN_WINDOW, ra.getWindow());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Evictable ANY = pid -> true;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for LRUReplacementPolicy: the least recently used page goes first
+     */
+    @Test public void lruOrder() {
+        ReplacementPolicy lru = ReplacementPolicy.create(ReplacementPolicy.Kind.LRU, 3);
+        lru.recordInsert(pid(0));
+        lru.recordInsert(pid(1));
+        lru.recordInsert(pid(2));
+        lru.recordAccess(pid(0));
+
+        assertEquals(pid(1), lru.evict(ANY));
+        assertEquals(pid(2), lru.evict(ANY));
+        assertEquals(pid(0), lru.evict(ANY));
+        assertNull(lru.evict(ANY));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: referenced pages get a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy clock = ReplacementPolicy.create(ReplacementPolicy.Kind.CLOCK, 3);
+        clock.recordInsert(pid(0));
+        clock.recordInsert(pid(1));
+        clock.recordInsert(pid(2));
+
+        // every bit is set, so the first sweep clears them and page 0 goes
+        assertEquals(pid(0), clock.evict(ANY));
+        clock.recordInsert(pid(3));
+        clock.recordAccess(pid(1));
+        assertEquals(pid(2), clock.evict(ANY));
+        assertEquals(2, clock.size());
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: pages seen once leave before hot pages
+     */
+    @Test public void twoQueueScanResistant() {
+        ReplacementPolicy twoQ = ReplacementPolicy.create(ReplacementPolicy.Kind.TWO_Q, 4);
+        twoQ.recordInsert(pid(0));
+        twoQ.recordInsert(pid(1));
+        // page 0 is evicted once and then read again: it becomes hot
+        assertEquals(pid(0), twoQ.evict(ANY));
+        twoQ.recordInsert(pid(0));
+
+        // a scan over new pages only cycles through A1in
+        for (int i = 10; i < 20; i++) {
+            twoQ.recordInsert(pid(i));
+            PageId victim = twoQ.evict(ANY);
+            assertEquals(false, pid(0).equals(victim));
+        }
+    }
+
+    /**
+     * Every policy has to honour the Evictable filter, which BufferPool uses
+     * to keep dirty pages in memory (NO-STEAL)
+     */
+    @Test public void skipsPinnedPages() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = ReplacementPolicy.create(kind, 3);
+            policy.recordInsert(pid(0));
+            policy.recordInsert(pid(1));
+            policy.recordInsert(pid(2));
+
+            assertEquals(pid(2), policy.evict(p -> p.equals(pid(2))));
+            assertNull(policy.evict(p -> false));
+            assertEquals(2, policy.size());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RowLockingTest extends TestUtil.CreateHeapFile {
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private TransactionId tid1, tid2;
+    private PageId p0;
+    private Tuple committed;
+    private BufferPool bp;
+
+    // Runs a row-locked insert or delete in its own thread
+    static class Writer extends Thread {
+        final TransactionId tid;
+        final int tableId;
+        final Tuple t;
+        final boolean insert;
+        volatile boolean done;
+        volatile Exception error;
+
+        Writer(TransactionId tid, int tableId, Tuple t, boolean insert) {
+            this.tid = tid;
+            this.tableId = tableId;
+            this.t = t;
+            this.insert = insert;
+        }
+
+        public void run() {
+            try {
+                if (insert) Database.getBufferPool().insertTuple(tid, tableId, t);
+                else Database.getBufferPool().deleteTuple(tid, t);
+                done = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // one committed tuple on page 0
+        TransactionId tid = new TransactionId();
+        committed = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, committed);
+        bp.flushAllPages();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRowLocking(true);
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.tid1 = new TransactionId();
+        this.tid2 = new TransactionId();
+    }
+
+    private Writer start(TransactionId tid, Tuple t, boolean insert) throws Exception {
+        Writer w = new Writer(tid, empty.getId(), t, insert);
+        w.start();
+        w.join(TIMEOUT);
+        return w;
+    }
+
+    private int countOnDisk(int value) {
+        HeapPage page = (HeapPage) empty.readPage(p0);
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Unit test for row locking: inserts of two transactions go to
+     * different slots of the same page without waiting for each other, and
+     * a commit only writes the committing transaction's rows.
+     */
+    @Test public void insertsShareAPage() throws Exception {
+        Writer w1 = start(tid1, Utility.getHeapTuple(2, 2), true);
+        Writer w2 = start(tid2, Utility.getHeapTuple(3, 2), true);
+        assertTrue(w1.done);
+        assertTrue(w2.done);
+        assertEquals(p0, w1.t.getRecordId().getPageId());
+        assertEquals(p0, w2.t.getRecordId().getPageId());
+
+        bp.transactionComplete(tid1, true);
+        assertEquals(1, countOnDisk(2));
+        assertEquals(0, countOnDisk(3));
+
+        bp.transactionComplete(tid2, false);
+        HeapPage cached = (HeapPage) bp.getPage(new TransactionId(), p0, Permissions.READ_ONLY);
+        assertEquals(cached.numSlots - 2, cached.getNumEmptySlots());
+        assertNull(cached.isDirty());
+    }
+
+    /**
+     * Unit test for row locking: deletes of the same tuple conflict, while
+     * a delete and an insert on the same page do not.
+     */
+    @Test public void deleteLocksTheRow() throws Exception {
+        Writer w1 = start(tid1, committed, false);
+        assertTrue(w1.done);
+        Writer w2 = start(tid2, committed, false);
+        assertFalse(w2.done);
+        TransactionId tid3 = new TransactionId();
+        Writer w3 = start(tid3, Utility.getHeapTuple(4, 2), true);
+        assertTrue(w3.done);
+        // the slot freed by the pending delete is not reused
+        assertFalse(committed.getRecordId().equals(w3.t.getRecordId()));
+
+        // once tid1 aborts the tuple is back and tid2 can delete it
+        bp.transactionComplete(tid1, false);
+        w2.join(TIMEOUT * 10);
+        assertTrue(w2.done);
+        assertNull(w2.error);
+        bp.transactionComplete(tid2, true);
+        bp.transactionComplete(tid3, true);
+        assertEquals(0, countOnDisk(1));
+        assertEquals(1, countOnDisk(4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private SlottedFile sf;
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.discard(f);
+        FreeSpaceMap.sideFile(f).deleteOnExit();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE},
+                new String[] {"id", "name"});
+        sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Math.max(Type.STRING_LEN, name.length())));
+        return t;
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Unit test for SlottedFile.insertTuple() and iterator(): short strings
+     * only take their own length, so many more tuples fit on a page than on
+     * a HeapPage.
+     */
+    @Test public void insertAndScan() throws Exception {
+        int count = 3 * HeapPage.getNumTuples(td);
+        for (int i = 0; i < count; i++) {
+            sf.insertTuple(tid, tuple(i, "name" + i));
+        }
+        assertEquals(1, sf.numPages());
+
+        DbFileIterator it = sf.iterator(tid);
+        assertFalse(it.hasNext());
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            i++;
+        }
+        assertEquals(count, i);
+        it.rewind();
+        assertTrue(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for strings longer than Type.STRING_LEN: they are written
+     * and read back whole.
+     */
+    @Test public void longStringsKeptWhole() throws Exception {
+        String name = repeat('x', 3 * Type.STRING_LEN);
+        sf.insertTuple(tid, tuple(1, name));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        SlottedPage page = (SlottedPage) sf.readPage(new HeapPageId(sf.getId(), 0));
+        Tuple t = page.iterator().next();
+        assertEquals(name, ((StringField) t.getField(1)).getValue());
+        assertEquals(new RecordId(page.getId(), 0), t.getRecordId());
+    }
+
+    /**
+     * Unit test for SlottedFile.insertTuple() after a delete: the freed
+     * space and slot of a full page are used again.
+     */
+    @Test public void deleteFreesSpace() throws Exception {
+        String name = repeat('y', 1000);
+        Tuple first = tuple(0, name);
+        sf.insertTuple(tid, first);
+        while (sf.numPages() == 1) sf.insertTuple(tid, tuple(1, name));
+        assertEquals(2, sf.numPages());
+
+        sf.deleteTuple(tid, first);
+        Tuple t = tuple(2, name);
+        sf.insertTuple(tid, t);
+        assertEquals(first.getRecordId(), t.getRecordId());
+
+        try {
+            sf.deleteTuple(tid, first);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Unit test for SlottedPage.getPageData() and getBeforeImage()
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        HeapPageId pid = new HeapPageId(sf.getId(), 0);
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int free = page.getFreeSpace();
+        Tuple a = tuple(1, "a");
+        Tuple b = tuple(2, "");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        assertEquals(free - SlottedPage.recordSize(a) - SlottedPage.recordSize(b)
+                - 2 * SlottedPage.SLOT_SIZE, page.getFreeSpace());
+        page.deleteTuple(a);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertFalse(copy.isSlotUsed(0));
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(b, it.next());
+        assertFalse(it.hasNext());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+
+        // the before image is the page as it was created
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+        page.setBeforeImage();
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
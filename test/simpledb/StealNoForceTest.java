@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StealNoForceTest extends TestUtil.CreateHeapFile {
+    private static final int POOL_PAGES = 5;
+    private static final int PAGES = 10;
+
+    private TransactionId tid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test: a pool in STEAL /
+     * NO-FORCE mode that is smaller than the transactions of the tests.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setStealNoForce(true);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid);
+        bp.setStealNoForce(false);
+    }
+
+    // Lock the table first, so that with row locking on the pages still
+    // hold no pending rows and can be written early
+    private void insertPages(TransactionId tid, int pages) throws Exception {
+        bp.lockTable(tid, empty.getId(), Permissions.READ_WRITE);
+        ArrayList<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * pages; ++i) batch.add(Utility.getHeapTuple(new int[] {i, -i}));
+        bp.insertTuples(tid, empty.getId(), batch.iterator());
+    }
+
+    private int count() throws Exception {
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        bp.transactionComplete(reader);
+        return count;
+    }
+
+    /**
+     * Unit test for a transaction that dirties more pages than the pool
+     * holds: its own pages are written to make room.
+     */
+    @Test public void largeTransactionSteals() throws Exception {
+        insertPages(tid, PAGES);
+        bp.transactionComplete(tid);
+        assertEquals(504 * PAGES, count());
+    }
+
+    /**
+     * Unit test for abort after pages were stolen: they are undone from
+     * the log.
+     */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        insertPages(tid, PAGES);
+        bp.transactionComplete(tid, false);
+        assertEquals(0, count());
+    }
+
+    /**
+     * Unit test for commit in NO-FORCE mode: the background writer writes
+     * the committed page later.
+     */
+    @Test public void writerWritesCommittedPages() throws Exception {
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        bp.transactionComplete(tid);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        int slots = HeapPage.getNumTuples(empty.getTupleDesc());
+        bp.awaitWriterRound();
+        assertEquals(slots - 1, ((HeapPage) empty.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for a committed page the background writer can't write:
+     * the writer stops, and a transaction that needs room fails instead of
+     * waiting for pages that stay dirty.
+     */
+    @Test public void writerFailureFailsSteals() throws Exception {
+        File f = File.createTempFile("failing", ".dat");
+        f.deleteOnExit();
+        AtomicBoolean failWrites = new AtomicBoolean(false);
+        HeapFile failing = new HeapFile(f, Utility.getTupleDesc(2)) {
+            @Override public void writePage(Page page) throws IOException {
+                if (failWrites.get()) throw new IOException("device gone");
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        failWrites.set(true);
+        TransactionId writer = new TransactionId();
+        // a table lock keeps row locking from writing the page at commit
+        bp.lockTable(writer, failing.getId(), Permissions.READ_WRITE);
+        bp.insertTuple(writer, failing.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+        bp.transactionComplete(writer);
+        bp.awaitWriterRound();
+        try {
+            insertPages(tid, PAGES);
+            fail("expected the steal to fail");
+        } catch (DbException e) {
+            assertTrue(e.getMessage().contains("device gone"));
+        }
+    }
+
+    /**
+     * Unit test for commit in NO-FORCE mode: the transaction keeps its
+     * locks until its COMMIT record is forced.
+     */
+    @Test public void commitForcedBeforeUnlock() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommit(500 * 1000, 64);
+        try {
+            Transaction t = new Transaction();
+            t.start();
+            bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(new int[] {1, 2}));
+            HeapPageId pid = new HeapPageId(empty.getId(), 0);
+            Thread committer = new Thread(() -> {
+                try {
+                    t.commit();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            committer.start();
+            Thread.sleep(100);
+            // the flusher has not forced the COMMIT record yet, so nobody
+            // else may read the page
+            assertTrue(bp.holdsLock(t.getId(), pid));
+            committer.join(10000);
+            assertFalse(committer.isAlive());
+            assertFalse(bp.holdsLock(t.getId(), pid));
+        } finally {
+            log.setGroupCommit(0, 64);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
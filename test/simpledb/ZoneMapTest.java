@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test: three full pages whose
+     * first field counts up from 0.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId loader = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 504 * 3; ++i) batch.add(Utility.getHeapTuple(new int[] {i, -i}));
+        Database.getBufferPool().insertTuples(loader, empty.getId(), batch.iterator());
+        Database.getBufferPool().transactionComplete(loader);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private int scan(Predicate p) throws Exception {
+        SeqScan scan = new SeqScan(tid, empty.getId());
+        scan.pushPredicate(p);
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            assertTrue(p.filter(scan.next()));
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    private boolean read(int pageNo) {
+        return bp.holdsLock(tid, new HeapPageId(empty.getId(), pageNo));
+    }
+
+    /**
+     * Unit test for a scan with a pushed predicate: the pages that cannot
+     * match are not read.
+     */
+    @Test public void scanSkipsPages() throws Exception {
+        assertEquals(10, scan(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(504 * 3 - 10))));
+        assertFalse(read(0));
+        assertFalse(read(1));
+        assertTrue(read(2));
+
+        // predicates on the second field use its own bounds
+        assertEquals(1, scan(new Predicate(1, Predicate.Op.EQUALS, new IntField(-600))));
+        assertFalse(read(0));
+        assertTrue(read(1));
+    }
+
+    /**
+     * Unit test for the zone map side file: a HeapFile opened on the same
+     * file skips pages before it has read any.
+     */
+    @Test public void persisted() throws Exception {
+        empty.close();
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        empty = reopened;
+        assertEquals(504, scan(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(504))));
+        assertTrue(read(0));
+        assertFalse(read(1));
+        assertFalse(read(2));
+    }
+
+    /**
+     * Unit test for inserts and deletes: an insert widens the bounds of its
+     * page, a delete does not narrow them.
+     */
+    @Test public void insertsAndDeletes() throws Exception {
+        Predicate large = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10000));
+        assertEquals(0, scan(large));
+        Tuple t = Utility.getHeapTuple(new int[] {20000, 0});
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(new HeapPageId(empty.getId(), 3), t.getRecordId().getPageId());
+        assertEquals(1, scan(large));
+
+        bp.deleteTuple(tid, t);
+        assertEquals(0, scan(large));
+        assertTrue(read(3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
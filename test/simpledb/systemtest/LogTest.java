@@ -312,6 +312,193 @@ public class LogTest extends SimpleDbTestBase {
         t.commit();
     }
 
+    @Test public void TestTornPageRepair()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // the second half of a committed page is overwritten, as if the
+        // crash came in the middle of writing the page
+        // crash
+        // recovery rewrites the page from the log
+
+        try (RandomAccessFile raf = new RandomAccessFile(file1, "rw")) {
+            byte[] garbage = new byte[BufferPool.getPageSize() / 2];
+            Arrays.fill(garbage, (byte) 0x7f);
+            raf.seek(BufferPool.getPageSize() / 2);
+            raf.write(garbage);
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
+    @Test public void TestDeltaTornPageRepair()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+
+        // *** Test:
+        // a second transaction updates the logged page, which only logs
+        // the bytes it changed
+        // the page is torn
+        // crash
+        // recovery rebuilds the page from its full image and the deltas
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 3, 0);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(Database.getLogFile().getLoggedBytes(t2.getId()) < BufferPool.getPageSize() / 8);
+        insertRow(hf1, t2, 4, 0);
+        t2.commit();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file1, "rw")) {
+            byte[] garbage = new byte[BufferPool.getPageSize() / 2];
+            Arrays.fill(garbage, (byte) 0x7f);
+            raf.seek(BufferPool.getPageSize() / 2);
+            raf.write(garbage);
+        }
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, true);
+        t.commit();
+    }
+
+    @Test public void TestNoForceCommitCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        Database.getBufferPool().setStealNoForce(true);
+
+        // *** Test:
+        // T1 commits, which only logs its pages
+        // crash
+        // recovery redoes T1
+
+        Transaction t = new Transaction();
+        t.start();
+        insertRow(hf1, t, 1, 0);
+        insertRow(hf1, t, 2, 0);
+        t.commit();
+
+        crash();
+
+        t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        t.commit();
+    }
+
+    @Test public void TestStealOpenCrash()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        BufferPool bp = Database.resetBufferPool(5);
+        bp.setStealNoForce(true);
+        bp.setRowLocking(true);
+
+        // *** Test:
+        // T1 inserts more pages than the pool holds and does not commit,
+        // so some of its pages are written
+        // crash
+        // recovery undoes T1
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        // with the table locked, its pages hold no pending rows under row locking
+        bp.lockTable(t1.getId(), hf1.getId(), Permissions.READ_WRITE);
+        for (int i = 0; i < 504 * 8; i++) insertRow(hf1, t1, 1000 + i, 0);
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 2, true);
+        look(hf1, t, 1000, false);
+        look(hf1, t, 1000 + 504 * 8 - 1, false);
+        t.commit();
+    }
+
+    @Test public void TestRowsAbortAfterCheckpoint()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Database.getBufferPool().setRowLocking(true);
+
+        // *** Test:
+        // T2 and T1 insert rows into the same page
+        // checkpoint
+        // T1 aborts, T2 commits
+        // crash
+        // T2's row is there, T1's is not
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 3, 0);
+        insertRow(hf1, t1, 4, 0);
+        Database.getLogFile().logCheckpoint();
+        t1.abort();
+        t2.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
+    @Test public void TestRowsAbortAfterWrite()
+            throws IOException, DbException, TransactionAbortedException {
+        setup();
+        doInsert(hf1, 1, 2);
+        Database.getBufferPool().setRowLocking(true);
+
+        // *** Test:
+        // T1 inserts a row, checkpoint writes the page
+        // T2 inserts a row into the same page
+        // T1 aborts, T2 commits
+        // crash
+        // T2's row is there, T1's is not
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        insertRow(hf1, t1, 4, 0);
+        Database.getLogFile().logCheckpoint();
+        Transaction t2 = new Transaction();
+        t2.start();
+        insertRow(hf1, t2, 3, 0);
+        t1.abort();
+        t2.commit();
+
+        crash();
+
+        Transaction t = new Transaction();
+        t.start();
+        look(hf1, t, 1, true);
+        look(hf1, t, 3, true);
+        look(hf1, t, 4, false);
+        t.commit();
+    }
+
     @Test public void TestOpenCrash()
             throws IOException, DbException, TransactionAbortedException {
         setup();
@@ -135,6 +135,45 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Scans the same table from several threads through a partitioned buffer pool. */
+    @Test public void testConcurrentScans() throws Exception {
+        final int THREADS = 8;
+        final int ROWS = 992 * 20;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(1, ROWS, null, tuples);
+        long expectedSum = 0;
+        for (ArrayList<Integer> tuple : tuples) expectedSum += tuple.get(0);
+
+        BufferPool bp = Database.resetBufferPool(1024);
+        assertTrue(bp.getNumPartitions() > 1);
+
+        final long[] sums = new long[THREADS];
+        final Exception[] errors = new Exception[THREADS];
+        Thread[] scanners = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int idx = i;
+            scanners[i] = new Thread(() -> {
+                try {
+                    TransactionId tid = new TransactionId();
+                    SeqScan scan = new SeqScan(tid, f.getId(), "");
+                    scan.open();
+                    while (scan.hasNext())
+                        sums[idx] += ((IntField) scan.next().getField(0)).getValue();
+                    scan.close();
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    errors[idx] = e;
+                }
+            });
+            scanners[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            scanners[i].join();
+            assertNull(errors[i]);
+            assertEquals(expectedSum, sums[i]);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);